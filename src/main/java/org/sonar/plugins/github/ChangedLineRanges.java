@@ -0,0 +1,99 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import javax.annotation.CheckForNull;
+
+/**
+ * Lines of the new version of a file covered by the hunks of its diff, which is where GitHub accepts review comments
+ * made by line. Only the bounds of each hunk are kept, instead of one entry per line.
+ */
+class ChangedLineRanges implements CommentableFile {
+
+  private final String path;
+  // First and last line of each hunk, in ascending order
+  private final int[] bounds;
+
+  ChangedLineRanges(String path, int[] bounds) {
+    this.path = path;
+    this.bounds = bounds;
+  }
+
+  /**
+   * Only reads the hunk headers of the patch.
+   */
+  static ChangedLineRanges parse(String path, String patch) {
+    int[] bounds = new int[16];
+    int size = 0;
+    int lineStart = 0;
+    while (lineStart < patch.length()) {
+      int lineEnd = patch.indexOf('\n', lineStart);
+      if (lineEnd < 0) {
+        lineEnd = patch.length();
+      }
+      if (patch.startsWith("@@", lineStart)) {
+        Matcher matcher = PullRequestFacade.HUNK_HEADER.matcher(patch.substring(lineStart, lineEnd));
+        if (!matcher.matches()) {
+          throw new IllegalStateException("Unable to parse patch line " + patch.substring(lineStart, lineEnd) + "\nFull patch: \n" + patch);
+        }
+        int first = Integer.parseInt(matcher.group(1));
+        int count = matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : 1;
+        if (count > 0) {
+          if (size == bounds.length) {
+            bounds = Arrays.copyOf(bounds, size * 2);
+          }
+          bounds[size++] = first;
+          bounds[size++] = first + count - 1;
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+    return new ChangedLineRanges(path, Arrays.copyOf(bounds, size));
+  }
+
+  @Override
+  public String path() {
+    return path;
+  }
+
+  int[] bounds() {
+    return bounds;
+  }
+
+  @CheckForNull
+  @Override
+  public Integer location(int line) {
+    int low = 0;
+    int high = bounds.length / 2 - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (line < bounds[2 * middle]) {
+        high = middle - 1;
+      } else if (line > bounds[2 * middle + 1]) {
+        low = middle + 1;
+      } else {
+        return line;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Detects that GitHub is unhealthy, so that the analysis only makes the few calls needed to publish the commit status
+ * and the summary comment. The breaker opens for a few minutes after too many consecutive calls failed for a transient
+ * reason or were too slow. Its state is kept in a local file containing the time until which it is open, so that other
+ * analyses running on the same machine skip their doomed calls too.
+ */
+class CircuitBreaker {
+
+  private static final Logger LOG = Loggers.get(CircuitBreaker.class);
+  static final long OPEN_DURATION_MS = TimeUnit.MINUTES.toMillis(5);
+  // Delay before the state written by other analyses is read again, failures of this analysis read it immediately
+  static final long STATE_READ_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private final int failureThreshold;
+  private final long slowCallThresholdMs;
+  @Nullable
+  private final Path stateFile;
+  private final LongSupplier clock;
+  private int consecutiveFailures = 0;
+  // Time until which the breaker is open, or 0 if it is closed
+  private long openUntil = 0;
+  private long nextStateRead = Long.MIN_VALUE;
+
+  /**
+   * @param failureThreshold number of consecutive failed calls that opens the breaker, 0 to never open it
+   * @param slowCallThresholdMs calls taking longer than that are considered as failed, 0 if no call is too slow
+   * @param stateFile file shared with the other analyses, or null to keep the state in memory
+   */
+  CircuitBreaker(int failureThreshold, long slowCallThresholdMs, @Nullable Path stateFile, LongSupplier clock) {
+    this.failureThreshold = failureThreshold;
+    this.slowCallThresholdMs = slowCallThresholdMs;
+    this.stateFile = stateFile;
+    this.clock = clock;
+  }
+
+  static CircuitBreaker disabled() {
+    return new CircuitBreaker(0, 0L, null, System::currentTimeMillis);
+  }
+
+  synchronized boolean isOpen() {
+    if (failureThreshold <= 0) {
+      return false;
+    }
+    long now = clock.getAsLong();
+    if (now >= nextStateRead) {
+      openUntil = Math.max(openUntil, readOpenUntil());
+      nextStateRead = now + STATE_READ_INTERVAL_MS;
+    }
+    return now < openUntil;
+  }
+
+  synchronized void recordSuccess(long durationMs) {
+    if (slowCallThresholdMs > 0 && durationMs > slowCallThresholdMs) {
+      recordFailure();
+      return;
+    }
+    consecutiveFailures = 0;
+    if (openUntil != 0 && !isOpen()) {
+      LOG.info("GitHub is responding again");
+      openUntil = 0;
+      deleteState();
+    }
+  }
+
+  synchronized void recordFailure() {
+    consecutiveFailures++;
+    nextStateRead = Long.MIN_VALUE;
+    if (failureThreshold <= 0 || isOpen()) {
+      return;
+    }
+    // After the open period, a single failure is enough to open the breaker again
+    if (consecutiveFailures >= failureThreshold || openUntil != 0) {
+      openUntil = clock.getAsLong() + OPEN_DURATION_MS;
+      LOG.warn("GitHub looks unhealthy after {} failed or slow calls, only the commit status and the summary comment will be updated for {} minutes",
+        consecutiveFailures, TimeUnit.MILLISECONDS.toMinutes(OPEN_DURATION_MS));
+      writeState();
+    }
+  }
+
+  private long readOpenUntil() {
+    if (stateFile == null || !Files.isRegularFile(stateFile)) {
+      return 0L;
+    }
+    try {
+      List<String> lines = Files.readAllLines(stateFile, StandardCharsets.UTF_8);
+      return lines.isEmpty() ? 0L : Long.parseLong(lines.get(0).trim());
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Ignoring unreadable circuit breaker state " + stateFile, e);
+      return 0L;
+    }
+  }
+
+  private void writeState() {
+    if (stateFile == null) {
+      return;
+    }
+    try {
+      Files.createDirectories(stateFile.getParent());
+      Path tmp = Files.createTempFile(stateFile.getParent(), stateFile.getFileName().toString(), ".tmp");
+      Files.write(tmp, Long.toString(openUntil).getBytes(StandardCharsets.UTF_8));
+      LocalFiles.move(tmp, stateFile);
+    } catch (IOException e) {
+      LOG.warn("Unable to write circuit breaker state " + stateFile, e);
+    }
+  }
+
+  private void deleteState() {
+    if (stateFile == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(stateFile);
+    } catch (IOException e) {
+      LOG.warn("Unable to delete circuit breaker state " + stateFile, e);
+    }
+  }
+}
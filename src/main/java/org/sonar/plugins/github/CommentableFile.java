@@ -0,0 +1,37 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * File of the pull request, and the lines of this file on which review comments can be published.
+ */
+interface CommentableFile {
+
+  String path();
+
+  /**
+   * @return the location of a review comment on the given line: its position in the diff, or the line itself when
+   * comments are published by line. Null if the line is not part of the diff.
+   */
+  @CheckForNull
+  Integer location(int line);
+}
@@ -0,0 +1,60 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.kohsuke.github.GHCommitState;
+
+/**
+ * Latest commit status of a given context.
+ */
+class CommitStatus {
+
+  private final GHCommitState state;
+  @Nullable
+  private final String description;
+  @Nullable
+  private final String targetUrl;
+
+  CommitStatus(GHCommitState state, @Nullable String description, @Nullable String targetUrl) {
+    this.state = state;
+    this.description = description;
+    this.targetUrl = targetUrl;
+  }
+
+  GHCommitState state() {
+    return state;
+  }
+
+  @CheckForNull
+  String description() {
+    return description;
+  }
+
+  @CheckForNull
+  String targetUrl() {
+    return targetUrl;
+  }
+
+  boolean isSame(GHCommitState otherState, String otherDescription) {
+    return state == otherState && otherDescription.equals(description);
+  }
+}
@@ -59,6 +59,150 @@ import org.sonar.api.PropertyType;
     description = "Issues will not be reported as inline comments but only in the global summary comment",
     project = true,
     global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_STATE_DIR,
+    name = "Local state directory",
+    description = "Directory where the plugin keeps state between analyses on the same machine. Defaults to 'github' in the SonarQube user home.",
+    project = false,
+    global = false),
+  @Property(
+    key = GitHubPlugin.GITHUB_PUBLICATION_JOURNAL,
+    defaultValue = "false",
+    name = "Enable publication journal",
+    description = "Remember locally the comments published on a pull request, so that a new analysis of the same commit does not list all comments of the pull request",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_POSITION_CACHE,
+    defaultValue = "false",
+    name = "Enable position cache",
+    description = "Remember locally where review comments can be located in the diff of a pull request, so that a new analysis of the same commits does not list the files "
+      + "of the pull request",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_INCREMENTAL,
+    defaultValue = "false",
+    name = "Enable incremental decoration",
+    description = "Reuse the comments published by the previous analysis of the pull request, and only reconcile the comments of files changed since then. "
+      + "Implies the publication journal.",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_MAX_WRITE_OPERATIONS,
+    name = "Maximum number of write operations",
+    description = "Maximum number of review comments created, updated or deleted by an analysis. Most severe issues are reported inline first, "
+      + "others are reported in the global summary comment. No limit when not set.",
+    project = true,
+    global = true,
+    type = PropertyType.INTEGER),
+  @Property(
+    key = GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD,
+    name = "Summary-only threshold",
+    description = "Maximum number of review comments created or updated by an analysis. When more would be needed, or more than the requests "
+      + "left in the GitHub rate limit, all issues are only reported in the global summary comment, and at most as many previous review comments "
+      + "are deleted. Disabled when not set.",
+    project = true,
+    global = true,
+    type = PropertyType.INTEGER),
+  @Property(
+    key = GitHubPlugin.GITHUB_PUBLICATION_TIMEOUT,
+    name = "Publication timeout",
+    description = "Maximum time, in seconds, spent publishing the analysis results on the pull request. When it is about to be reached, "
+      + "remaining issues are only reported in the global summary comment and outdated review comments are kept. No timeout when not set.",
+    project = true,
+    global = true,
+    type = PropertyType.INTEGER),
+  @Property(
+    key = GitHubPlugin.GITHUB_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+    defaultValue = "0",
+    name = "Circuit breaker failure threshold",
+    description = "Number of consecutive failed or slow GitHub calls after which GitHub is considered unhealthy for 5 minutes. "
+      + "During that time, analyses running on the same machine only update the commit status and the summary comment. Disabled when 0.",
+    project = true,
+    global = true,
+    type = PropertyType.INTEGER),
+  @Property(
+    key = GitHubPlugin.GITHUB_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD,
+    defaultValue = "20",
+    name = "Circuit breaker slow call threshold",
+    description = "Time, in seconds, after which a GitHub call is considered as failed by the circuit breaker.",
+    project = true,
+    global = true,
+    type = PropertyType.INTEGER),
+  @Property(
+    key = GitHubPlugin.GITHUB_SHARED_RATE_LIMIT,
+    name = "Shared rate limit",
+    description = "Maximum number of comments and statuses created or updated per minute by all the analyses of this machine using the same GitHub token, "
+      + "coordinated through the local state directory. No limit when not set.",
+    project = false,
+    global = true,
+    type = PropertyType.INTEGER),
+  @Property(
+    key = GitHubPlugin.GITHUB_REVIEW_COMMENT_BY_LINE,
+    defaultValue = "false",
+    name = "Review comments by line",
+    description = "Publish review comments on file lines rather than on diff positions, so that the content of patches doesn't have to be kept in memory. "
+      + "Requires a GitHub version supporting the line and side parameters of review comments.",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_BACKGROUND_INIT,
+    defaultValue = "false",
+    name = "Load pull request in background",
+    description = "Load the existing comments and the patches of the pull request while the analysis runs, instead of before it starts. "
+      + "The connection to GitHub is still checked, and the pending commit status set, before the analysis starts.",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_TRACE,
+    defaultValue = "false",
+    name = "Trace",
+    description = "Write the timeline of the pull request decoration and of the GitHub requests to " + PullRequestProjectBuilder.TRACE_FILE
+      + " in the scanner work directory, in the Chrome Trace Event format that can be opened in Perfetto.",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_SARIF,
+    defaultValue = "false",
+    name = "SARIF export",
+    description = "Write the new issues to " + SarifSink.FILE_NAME + " in the scanner work directory, in the SARIF format.",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_CODE_SCANNING,
+    defaultValue = "false",
+    name = "Code scanning upload",
+    description = "Upload the new issues to the code scanning API of GitHub, as a gzipped SARIF file sent in a single request. "
+      + "Requires code scanning to be enabled on the repository, and the security_events scope for the OAuth token.",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_SUMMARIZE_EXTRA_ISSUES,
+    defaultValue = "false",
+    name = "Summarize extra issues",
+    description = "When there are too many issues outside of the diff to list them in the global comment, display the files and the rules with the most issues.",
+    project = true,
+    global = true,
+    type = PropertyType.BOOLEAN),
+  @Property(
+    key = GitHubPlugin.GITHUB_PUBLICATION_PLAN,
+    defaultValue = "false",
+    name = "Write publication plan",
+    description = "Instead of publishing comments and the final commit status, write them to " + PublicationPlan.FILE_NAME + " in the working directory of the analysis, "
+      + "to be published later with: java -cp <plugin and its dependencies> org.sonar.plugins.github.PlanPublisher <plan files>. "
+      + "Only the writes are deferred, the pull request and its comments are still loaded during the analysis.",
+    project = true,
+    global = true,
     type = PropertyType.BOOLEAN)
 })
 public class GitHubPlugin implements Plugin {
@@ -68,6 +212,23 @@ public class GitHubPlugin implements Plugin {
   public static final String GITHUB_REPO = "sonar.github.repository";
   public static final String GITHUB_PULL_REQUEST = "sonar.github.pullRequest";
   public static final String GITHUB_DISABLE_INLINE_COMMENTS = "sonar.github.disableInlineComments";
+  public static final String GITHUB_STATE_DIR = "sonar.github.stateDir";
+  public static final String GITHUB_PUBLICATION_JOURNAL = "sonar.github.publicationJournal";
+  public static final String GITHUB_POSITION_CACHE = "sonar.github.positionCache";
+  public static final String GITHUB_INCREMENTAL = "sonar.github.incremental";
+  public static final String GITHUB_MAX_WRITE_OPERATIONS = "sonar.github.maxWriteOperations";
+  public static final String GITHUB_PUBLICATION_TIMEOUT = "sonar.github.publicationTimeout";
+  public static final String GITHUB_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "sonar.github.circuitBreaker.failureThreshold";
+  public static final String GITHUB_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD = "sonar.github.circuitBreaker.slowCallThreshold";
+  public static final String GITHUB_SHARED_RATE_LIMIT = "sonar.github.sharedRateLimit";
+  public static final String GITHUB_REVIEW_COMMENT_BY_LINE = "sonar.github.reviewCommentByLine";
+  public static final String GITHUB_BACKGROUND_INIT = "sonar.github.backgroundInit";
+  public static final String GITHUB_TRACE = "sonar.github.trace";
+  public static final String GITHUB_SARIF = "sonar.github.sarif";
+  public static final String GITHUB_CODE_SCANNING = "sonar.github.codeScanning";
+  public static final String GITHUB_SUMMARIZE_EXTRA_ISSUES = "sonar.github.summarizeExtraIssues";
+  public static final String GITHUB_PUBLICATION_PLAN = "sonar.github.publicationPlan";
+  public static final String GITHUB_SUMMARY_ONLY_THRESHOLD = "sonar.github.summaryOnlyThreshold";
 
   @Override
   public void define(Context context) {
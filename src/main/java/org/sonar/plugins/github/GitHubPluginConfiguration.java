@@ -19,12 +19,16 @@
  */
 package org.sonar.plugins.github;
 
+import java.io.File;
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
 import java.net.ProxySelector;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.CheckForNull;
@@ -38,6 +42,7 @@ import org.sonar.api.utils.System2;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
+import static org.apache.commons.lang.StringUtils.isBlank;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 @ScannerSide
@@ -53,6 +58,7 @@ public class GitHubPluginConfiguration {
   public static final String HTTPS_PROXY_PORT = "https.proxyPort";
   public static final String HTTP_PROXY_USER = "http.proxyUser";
   public static final String HTTP_PROXY_PASS = "http.proxyPassword";
+  private static final String SONAR_USER_HOME = "sonar.userHome";
 
   private final Settings settings;
   private final System2 system2;
@@ -137,6 +143,145 @@ public class GitHubPluginConfiguration {
     return !settings.getBoolean(GitHubPlugin.GITHUB_DISABLE_INLINE_COMMENTS);
   }
 
+  /**
+   * Directory where state shared between analyses is stored, by default in the SonarQube user home.
+   */
+  public File stateDir() {
+    String stateDir = settings.getString(GitHubPlugin.GITHUB_STATE_DIR);
+    if (isNotBlank(stateDir)) {
+      return new File(stateDir);
+    }
+    String userHome = settings.getString(SONAR_USER_HOME);
+    if (isBlank(userHome)) {
+      userHome = system2.envVariable("SONAR_USER_HOME");
+    }
+    if (isBlank(userHome)) {
+      userHome = new File(system2.property("user.home"), ".sonar").getPath();
+    }
+    return new File(userHome, "github");
+  }
+
+  public boolean isPublicationJournalEnabled() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_PUBLICATION_JOURNAL) || isIncremental();
+  }
+
+  public boolean isIncremental() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_INCREMENTAL);
+  }
+
+  public boolean isPositionCacheEnabled() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_POSITION_CACHE);
+  }
+
+  /**
+   * @return maximum number of review comment writes of an analysis, {@link Integer#MAX_VALUE} if not limited
+   */
+  public int maxWriteOperations() {
+    int max = settings.getInt(GitHubPlugin.GITHUB_MAX_WRITE_OPERATIONS);
+    return max > 0 ? max : Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return maximum number of review comment writes above which issues are only reported in the global comment,
+   * {@link Integer#MAX_VALUE} if the summary-only mode is disabled
+   */
+  public int summaryOnlyThreshold() {
+    int threshold = settings.getInt(GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD);
+    return threshold > 0 ? threshold : Integer.MAX_VALUE;
+  }
+
+  /**
+   * @return maximum time spent publishing results on the pull request in milliseconds, 0 if not limited
+   */
+  public long publicationTimeoutMs() {
+    int timeout = settings.getInt(GitHubPlugin.GITHUB_PUBLICATION_TIMEOUT);
+    return timeout > 0 ? TimeUnit.SECONDS.toMillis(timeout) : 0L;
+  }
+
+  /**
+   * @return number of consecutive failed GitHub calls after which GitHub is considered unhealthy, 0 if never
+   */
+  public int circuitBreakerFailureThreshold() {
+    return Math.max(0, settings.getInt(GitHubPlugin.GITHUB_CIRCUIT_BREAKER_FAILURE_THRESHOLD));
+  }
+
+  /**
+   * @return duration in milliseconds after which a GitHub call is considered as failed, 0 if never
+   */
+  public long circuitBreakerSlowCallThresholdMs() {
+    return TimeUnit.SECONDS.toMillis(Math.max(0, settings.getInt(GitHubPlugin.GITHUB_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD)));
+  }
+
+  /**
+   * @return number of content-creating requests per minute shared by the analyses of the machine using the same token, 0 if not limited
+   */
+  public int sharedRateLimit() {
+    return Math.max(0, settings.getInt(GitHubPlugin.GITHUB_SHARED_RATE_LIMIT));
+  }
+
+  /**
+   * @return true if review comments are located by file line, false if they are located by diff position
+   */
+  public boolean isReviewCommentByLine() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_REVIEW_COMMENT_BY_LINE);
+  }
+
+  /**
+   * @return true if the pull request is loaded while the analysis runs
+   */
+  public boolean isBackgroundInit() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_BACKGROUND_INIT);
+  }
+
+  /**
+   * @return true if a trace file of the pull request decoration is written
+   */
+  public boolean isTraceEnabled() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_TRACE);
+  }
+
+  /**
+   * @return true if new issues are written to a SARIF file, which is needed to upload them to code scanning
+   */
+  public boolean isSarifExportEnabled() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_SARIF) || isCodeScanningUploadEnabled();
+  }
+
+  public boolean isCodeScanningUploadEnabled() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_CODE_SCANNING);
+  }
+
+  /**
+   * @return true if extra issues are summarized by file and by rule when there are too many of them to be listed
+   */
+  public boolean isExtraIssuesSummaryEnabled() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_SUMMARIZE_EXTRA_ISSUES);
+  }
+
+  /**
+   * @return true if what would be published is written to a {@link PublicationPlan} instead
+   */
+  public boolean isPublicationPlanEnabled() {
+    return settings.getBoolean(GitHubPlugin.GITHUB_PUBLICATION_PLAN);
+  }
+
+  /**
+   * @return settings of the plugin with the resolved repository, but without the OAuth token, for the publication of a plan.
+   * The SonarQube user home is kept, so that the plan is published with the same local state as the analysis.
+   */
+  public Map<String, String> publicationSettings() {
+    Map<String, String> result = new TreeMap<>();
+    for (Map.Entry<String, String> setting : settings.getProperties().entrySet()) {
+      if ((setting.getKey().startsWith("sonar.github.") || SONAR_USER_HOME.equals(setting.getKey()))
+        && !GitHubPlugin.GITHUB_OAUTH.equals(setting.getKey())
+        && !GitHubPlugin.GITHUB_PUBLICATION_PLAN.equals(setting.getKey())) {
+        result.put(setting.getKey(), setting.getValue());
+      }
+    }
+    result.put(GitHubPlugin.GITHUB_REPO, repository());
+    return result;
+  }
+
   /**
    * Checks if a proxy was passed with command line parameters or configured in the system.
    * If only an HTTP proxy was configured then it's properties are copied to the HTTPS proxy (like SonarQube configuration)
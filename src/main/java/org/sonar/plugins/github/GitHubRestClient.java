@@ -0,0 +1,552 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Minimal client for the GitHub WS calls that github-api does not expose, like filtered listings
+ * or updates and deletions of comments by id, and for all the writes of the plugin. Calls that fail
+ * for a transient reason are attempted again, according to a {@link RetryPolicy}, unless the {@link CircuitBreaker}
+ * considers that GitHub is unhealthy.
+ */
+class GitHubRestClient {
+
+  private static final Logger LOG = Loggers.get(GitHubRestClient.class);
+
+  static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>;\\s*rel=\"next\"");
+  private static final Pattern LAST_LINK = Pattern.compile("<([^>]+)>;\\s*rel=\"last\"");
+  // Page parameter of the URL of a list, group 1 is the page number
+  private static final Pattern PAGE_IN_URL = Pattern.compile("[?&]page=([0-9]{1,9})(?=&|$)");
+  /**
+   * Maximum number of pages of a list loaded at the same time, to stay far from the secondary rate limits of GitHub.
+   */
+  static final int MAX_CONCURRENT_PAGES = 4;
+  private static final int CONNECT_TIMEOUT_MS = 30_000;
+  private static final int READ_TIMEOUT_MS = 60_000;
+
+  private final String endpoint;
+  @Nullable
+  private final String oauth;
+  @Nullable
+  private final Proxy proxy;
+  private final RetryPolicy retryPolicy;
+  private final CircuitBreaker circuitBreaker;
+  private final Tracer tracer;
+  private final SharedRateLimiter rateLimiter;
+  private final LongSupplier clock;
+  private volatile long writeDeadline = Long.MAX_VALUE;
+  @Nullable
+  private volatile Integer rateLimitRemaining;
+
+  GitHubRestClient(String endpoint, @Nullable String oauth, @Nullable Proxy proxy) {
+    this(endpoint, oauth, proxy, new RetryPolicy(RetryPolicy.DEFAULT_MAX_ATTEMPTS), CircuitBreaker.disabled());
+  }
+
+  GitHubRestClient(String endpoint, @Nullable String oauth, @Nullable Proxy proxy, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker) {
+    this(endpoint, oauth, proxy, retryPolicy, circuitBreaker, Tracer.disabled());
+  }
+
+  GitHubRestClient(String endpoint, @Nullable String oauth, @Nullable Proxy proxy, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Tracer tracer) {
+    this(endpoint, oauth, proxy, retryPolicy, circuitBreaker, tracer, SharedRateLimiter.unlimited());
+  }
+
+  /**
+   * @param rateLimiter limits the POST requests, which create or update content
+   */
+  GitHubRestClient(String endpoint, @Nullable String oauth, @Nullable Proxy proxy, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Tracer tracer,
+    SharedRateLimiter rateLimiter) {
+    this(endpoint, oauth, proxy, retryPolicy, circuitBreaker, tracer, rateLimiter, System::currentTimeMillis);
+  }
+
+  /**
+   * @param clock current time, compared to the deadline set by {@link #setWriteDeadline(long)}
+   */
+  GitHubRestClient(String endpoint, @Nullable String oauth, @Nullable Proxy proxy, RetryPolicy retryPolicy, CircuitBreaker circuitBreaker, Tracer tracer,
+    SharedRateLimiter rateLimiter, LongSupplier clock) {
+    this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+    this.oauth = oauth;
+    this.proxy = proxy;
+    this.retryPolicy = retryPolicy;
+    this.circuitBreaker = circuitBreaker;
+    this.tracer = tracer;
+    this.rateLimiter = rateLimiter;
+    this.clock = clock;
+  }
+
+  /**
+   * Reads one element of a JSON array. The parser is positioned on the START_OBJECT token of the element
+   * and must be left on the matching END_OBJECT token.
+   */
+  interface ItemReader<T> {
+    T read(JsonParser parser) throws IOException;
+  }
+
+  /**
+   * Looks for the resource created by a previous attempt of a creation, that failed in a way that does not tell
+   * whether GitHub processed it.
+   */
+  interface ReplayCheck<T> {
+    @CheckForNull
+    T findCreated() throws IOException;
+  }
+
+  private interface ResponseReader<T> {
+    T read(HttpURLConnection connection) throws IOException;
+  }
+
+  static final class Page<T> {
+    private final List<T> items;
+    @Nullable
+    private final String nextUrl;
+    @Nullable
+    private final String lastUrl;
+
+    Page(List<T> items, @Nullable String nextUrl) {
+      this(items, nextUrl, null);
+    }
+
+    Page(List<T> items, @Nullable String nextUrl, @Nullable String lastUrl) {
+      this.items = items;
+      this.nextUrl = nextUrl;
+      this.lastUrl = lastUrl;
+    }
+
+    List<T> items() {
+      return items;
+    }
+
+    @CheckForNull
+    String nextUrl() {
+      return nextUrl;
+    }
+
+    boolean hasNext() {
+      return nextUrl != null;
+    }
+
+    @CheckForNull
+    String lastUrl() {
+      return lastUrl;
+    }
+  }
+
+  /**
+   * Failed GitHub WS call, with the HTTP response code.
+   */
+  static class HttpResponseException extends IOException {
+    private final int responseCode;
+    @Nullable
+    private final Long retryAfterMs;
+
+    HttpResponseException(String message, int responseCode) {
+      this(message, responseCode, null);
+    }
+
+    HttpResponseException(String message, int responseCode, @Nullable Long retryAfterMs) {
+      super(message);
+      this.responseCode = responseCode;
+      this.retryAfterMs = retryAfterMs;
+    }
+
+    int responseCode() {
+      return responseCode;
+    }
+
+    /**
+     * @return the delay requested by GitHub before sending the request again, if any
+     */
+    @CheckForNull
+    Long retryAfterMs() {
+      return retryAfterMs;
+    }
+  }
+
+  /**
+   * Load a single page of a list endpoint.
+   * @param pathOrUrl either a path relative to the API endpoint, or the absolute URL of a "next" link
+   */
+  <T> Page<T> getPage(String pathOrUrl, ItemReader<T> reader) throws IOException {
+    return call("GET", pathOrUrl, null, connection -> {
+      List<T> items = new ArrayList<>();
+      try (InputStream is = connection.getInputStream(); JsonParser parser = JSON_FACTORY.createParser(is)) {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+          throw new JsonParseException(parser, "Expected a JSON array from " + connection.getURL());
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          items.add(reader.read(parser));
+        }
+      }
+      String link = connection.getHeaderField("Link");
+      return new Page<>(items, nextUrl(link), link(LAST_LINK, link));
+    }, null);
+  }
+
+  /**
+   * Load all the pages of a list endpoint, and pass their items in order to the consumer. When the first page links
+   * to the last one, the following pages are loaded concurrently, at most {@link #MAX_CONCURRENT_PAGES} at a time,
+   * instead of following the "next" links one after the other. Pages are still consumed in order, and memory is bounded
+   * by the pages loaded in advance.
+   */
+  <T> void forEachItem(String path, ItemReader<T> reader, Consumer<T> consumer) throws IOException {
+    Page<T> first = getPage(path, reader);
+    first.items().forEach(consumer);
+    List<String> pageUrls = followingPageUrls(first);
+    if (pageUrls == null) {
+      String pageUrl = first.nextUrl();
+      while (pageUrl != null) {
+        Page<T> page = getPage(pageUrl, reader);
+        page.items().forEach(consumer);
+        pageUrl = page.nextUrl();
+      }
+      return;
+    }
+    if (pageUrls.isEmpty()) {
+      // The first page is the last one
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_CONCURRENT_PAGES, pageUrls.size()), r -> {
+      Thread thread = new Thread(r, "GitHub page loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      Deque<Future<Page<T>>> pending = new ArrayDeque<>();
+      Iterator<String> urls = pageUrls.iterator();
+      while (urls.hasNext() || !pending.isEmpty()) {
+        while (urls.hasNext() && pending.size() < MAX_CONCURRENT_PAGES) {
+          String url = urls.next();
+          pending.add(executor.submit(() -> getPage(url, reader)));
+        }
+        awaitPage(pending.poll()).items().forEach(consumer);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return URLs of the pages following the first one, or null if the last page is not known
+   */
+  @CheckForNull
+  static List<String> followingPageUrls(Page<?> first) {
+    String lastUrl = first.lastUrl();
+    Matcher matcher = findPage(lastUrl);
+    if (matcher == null) {
+      return null;
+    }
+    int lastPage = Integer.parseInt(matcher.group(1));
+    List<String> urls = new ArrayList<>();
+    for (int page = 2; page <= lastPage; page++) {
+      urls.add(lastUrl.substring(0, matcher.start(1)) + page + lastUrl.substring(matcher.end(1)));
+    }
+    return urls;
+  }
+
+  @CheckForNull
+  private static Matcher findPage(@Nullable String url) {
+    if (url == null) {
+      return null;
+    }
+    Matcher matcher = PAGE_IN_URL.matcher(url);
+    return matcher.find() ? matcher : null;
+  }
+
+  private static <T> Page<T> awaitPage(Future<Page<T>> page) throws IOException {
+    try {
+      return page.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while loading a page from GitHub");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Load a single JSON object.
+   */
+  <T> T get(String path, ItemReader<T> reader) throws IOException {
+    return call("GET", path, null, connection -> readObject(connection, reader), null);
+  }
+
+  /**
+   * POST a JSON object made of string fields, null values being omitted. GitHub accepts POST in place of PATCH for updates.
+   * Only use it for idempotent requests, since it may be sent several times.
+   */
+  void post(String path, String... fieldNamesAndValues) throws IOException {
+    call("POST", path, json(fieldNamesAndValues), connection -> null, null);
+  }
+
+  /**
+   * POST a JSON object that was already serialized, for requests too big to be built from fields.
+   * Only use it for idempotent requests, since it may be sent several times.
+   */
+  void postJson(String path, byte[] json) throws IOException {
+    call("POST", path, json, connection -> null, null);
+  }
+
+  /**
+   * POST a JSON object made of string and integer fields to create a resource.
+   * @param replayCheck called before sending the request again when the previous attempt may have succeeded, so that
+   * the resource is not created twice
+   * @return the created resource
+   */
+  <T> T create(String path, ItemReader<T> reader, ReplayCheck<T> replayCheck, Object... fieldNamesAndValues) throws IOException {
+    return call("POST", path, json(fieldNamesAndValues), connection -> readObject(connection, reader), replayCheck);
+  }
+
+  void delete(String path) throws IOException {
+    call("DELETE", path, null, connection -> null, null);
+  }
+
+  private <T> T call(String method, String pathOrUrl, @Nullable byte[] body, ResponseReader<T> responseReader, @Nullable ReplayCheck<T> replayCheck)
+    throws IOException {
+    for (int attempt = 1;; attempt++) {
+      if ("POST".equals(method)) {
+        rateLimiter.acquire(writeDeadline);
+      }
+      long start = System.nanoTime();
+      try {
+        T result = callOnce(method, pathOrUrl, body, responseReader, attempt);
+        circuitBreaker.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+      } catch (IOException e) {
+        if (RetryPolicy.isTransient(e)) {
+          circuitBreaker.recordFailure();
+        } else {
+          // GitHub answered, even if the request is wrong
+          circuitBreaker.recordSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        // Don't insist when GitHub is unhealthy
+        long timeLeft = writeDeadline == Long.MAX_VALUE ? Long.MAX_VALUE : (writeDeadline - clock.getAsLong());
+        long delay = circuitBreaker.isOpen() ? -1 : retryPolicy.delayBeforeRetry(attempt, e, timeLeft);
+        if (delay < 0) {
+          throw e;
+        }
+        LOG.debug("{} {} failed ({}), attempting again in {} ms", method, pathOrUrl, e.getMessage(), delay);
+        retryPolicy.sleep(delay);
+        if (replayCheck != null && RetryPolicy.mayHaveSucceeded(e)) {
+          T created = replayCheck.findCreated();
+          if (created != null) {
+            LOG.debug("{} {} was processed by the previous attempt", method, pathOrUrl);
+            return created;
+          }
+        }
+      }
+    }
+  }
+
+  private Tracer.Span startSpan(String method, URL url, int attempt) {
+    if (!tracer.isEnabled()) {
+      return tracer.start("github", method);
+    }
+    Tracer.Span span = tracer.start("github", method + " " + url.getPath());
+    Matcher page = findPage(url.toString());
+    if (page != null) {
+      span.arg("page", Integer.parseInt(page.group(1)));
+    }
+    if (attempt > 1) {
+      span.arg("attempt", attempt);
+    }
+    return span;
+  }
+
+  private <T> T callOnce(String method, String pathOrUrl, @Nullable byte[] body, ResponseReader<T> responseReader, int attempt) throws IOException {
+    HttpURLConnection connection = open(method, pathOrUrl);
+    Tracer.Span span = startSpan(method, connection.getURL(), attempt);
+    try {
+      if (body != null) {
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+        try (OutputStream os = connection.getOutputStream()) {
+          os.write(body);
+        }
+      }
+      span.arg("status", connection.getResponseCode());
+      recordRateLimit(connection.getHeaderField("X-RateLimit-Remaining"));
+      checkResponse(connection);
+      return responseReader.read(connection);
+    } catch (IOException e) {
+      span.arg("error", e.getClass().getSimpleName());
+      throw e;
+    } finally {
+      connection.disconnect();
+      span.close();
+    }
+  }
+
+  private static <T> T readObject(HttpURLConnection connection, ItemReader<T> reader) throws IOException {
+    try (InputStream is = connection.getInputStream(); JsonParser parser = JSON_FACTORY.createParser(is)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(parser, "Expected a JSON object from " + connection.getURL());
+      }
+      return reader.read(parser);
+    }
+  }
+
+  private static byte[] json(Object... fieldNamesAndValues) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(bytes)) {
+      generator.writeStartObject();
+      for (int i = 0; i < fieldNamesAndValues.length; i += 2) {
+        String fieldName = (String) fieldNamesAndValues[i];
+        Object value = fieldNamesAndValues[i + 1];
+        if (value instanceof Integer) {
+          generator.writeNumberField(fieldName, (Integer) value);
+        } else if (value != null) {
+          generator.writeStringField(fieldName, value.toString());
+        }
+      }
+      generator.writeEndObject();
+    }
+    return bytes.toByteArray();
+  }
+
+  HttpURLConnection open(String method, String pathOrUrl) throws IOException {
+    URL url = new URL(pathOrUrl.startsWith("http") ? pathOrUrl : (endpoint + pathOrUrl));
+    HttpURLConnection connection = (HttpURLConnection) (proxy != null ? url.openConnection(proxy) : url.openConnection());
+    connection.setRequestMethod(method);
+    connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    connection.setReadTimeout(READ_TIMEOUT_MS);
+    connection.setRequestProperty("Accept", "application/vnd.github.v3+json");
+    if (oauth != null) {
+      connection.setRequestProperty("Authorization", "token " + oauth);
+    }
+    return connection;
+  }
+
+  private void recordRateLimit(@Nullable String remaining) {
+    if (remaining != null) {
+      try {
+        rateLimitRemaining = Integer.parseInt(remaining.trim());
+      } catch (NumberFormatException e) {
+        // Keep the last known value
+      }
+    }
+  }
+
+  /**
+   * @param writeDeadline time after which failed requests are not attempted again, and POST requests don't wait
+   * for the shared rate limit anymore
+   */
+  void setWriteDeadline(long writeDeadline) {
+    this.writeDeadline = writeDeadline;
+  }
+
+  /**
+   * @return number of requests left in the rate limit of GitHub, according to the last response. Null if unknown.
+   */
+  @CheckForNull
+  Integer rateLimitRemaining() {
+    return rateLimitRemaining;
+  }
+
+  private static void checkResponse(HttpURLConnection connection) throws IOException {
+    int code = connection.getResponseCode();
+    if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+      throw new FileNotFoundException(connection.getURL().toString());
+    }
+    if (code >= 400) {
+      throw new HttpResponseException("Server returned HTTP response code: " + code + " for URL: " + connection.getURL(), code,
+        retryAfterMs(connection.getHeaderField("Retry-After"), connection.getHeaderField("X-RateLimit-Remaining"),
+          connection.getHeaderField("X-RateLimit-Reset"), System.currentTimeMillis()));
+    }
+  }
+
+  /**
+   * @return the delay before the request can be sent again: the one of the Retry-After header sent with secondary rate
+   * limits, or the time until the reset of an exhausted primary rate limit. Null if GitHub did not request any.
+   */
+  @CheckForNull
+  static Long retryAfterMs(@Nullable String retryAfter, @Nullable String rateLimitRemaining, @Nullable String rateLimitReset, long now) {
+    try {
+      if (retryAfter != null) {
+        return Math.max(0L, Long.parseLong(retryAfter.trim()) * 1000);
+      }
+      if ("0".equals(rateLimitRemaining) && rateLimitReset != null) {
+        return Math.max(0L, Long.parseLong(rateLimitReset.trim()) * 1000 - now);
+      }
+    } catch (NumberFormatException e) {
+      // HTTP dates are not used by GitHub
+    }
+    return null;
+  }
+
+  @CheckForNull
+  static String nextUrl(@Nullable String linkHeader) {
+    return link(NEXT_LINK, linkHeader);
+  }
+
+  @CheckForNull
+  private static String link(Pattern relation, @Nullable String linkHeader) {
+    if (linkHeader == null) {
+      return null;
+    }
+    Matcher matcher = relation.matcher(linkHeader);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /**
+   * Skip the value of the current field, whatever its type.
+   */
+  static void skipValue(JsonParser parser) throws IOException {
+    parser.nextToken();
+    parser.skipChildren();
+  }
+}
@@ -20,27 +20,54 @@
 package org.sonar.plugins.github;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.function.Supplier;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.kohsuke.github.GHCommitState;
+import org.sonar.api.batch.fs.InputComponent;
+import org.sonar.api.batch.fs.InputPath;
 import org.sonar.api.batch.postjob.issue.PostJobIssue;
 import org.sonar.api.batch.rule.Severity;
 
 public class GlobalReport {
-  private final boolean tryReportIssuesInline;
+  /**
+   * Maximum number of distinct files or rules counted when summarizing extra issues, to bound memory.
+   */
+  static final int SUMMARY_CAPACITY = 500;
+  static final int SUMMARY_ROWS = 5;
+
+  private boolean tryReportIssuesInline;
   private int[] newIssuesBySeverity = new int[Severity.values().length];
   private int extraIssueCount = 0;
   private int maxGlobalReportedIssues;
   private final ReportBuilder builder;
+  private final List<String> notes = new ArrayList<>();
+  @CheckForNull
+  private final TopCounter extraIssuesByFile;
+  @CheckForNull
+  private final TopCounter extraIssuesByRule;
 
   public GlobalReport(MarkDownUtils markDownUtils, boolean tryReportIssuesInline) {
     this(markDownUtils, tryReportIssuesInline, GitHubPluginConfiguration.MAX_GLOBAL_ISSUES);
   }
 
   public GlobalReport(MarkDownUtils markDownUtils, boolean tryReportIssuesInline, int maxGlobalReportedIssues) {
+    this(markDownUtils, tryReportIssuesInline, maxGlobalReportedIssues, false);
+  }
+
+  /**
+   * @param summarizeExtraIssues true to count all the extra issues by file and by rule, and display the most frequent ones
+   * when there are too many extra issues to list them
+   */
+  public GlobalReport(MarkDownUtils markDownUtils, boolean tryReportIssuesInline, int maxGlobalReportedIssues, boolean summarizeExtraIssues) {
     this.tryReportIssuesInline = tryReportIssuesInline;
     this.maxGlobalReportedIssues = maxGlobalReportedIssues;
     this.builder = new MarkDownReportBuilder(markDownUtils);
+    this.extraIssuesByFile = summarizeExtraIssues ? new TopCounter(SUMMARY_CAPACITY) : null;
+    this.extraIssuesByRule = summarizeExtraIssues ? new TopCounter(SUMMARY_CAPACITY) : null;
   }
 
   private void increment(Severity severity) {
@@ -62,6 +89,9 @@ public class GlobalReport {
     if (tryReportIssuesInline && hasInlineIssues) {
       builder.append("\nWatch the comments in this conversation to review them.\n");
     }
+    for (String note : notes) {
+      builder.append("\nNote: ").append(note).append("\n");
+    }
 
     if (extraIssueCount > 0) {
       appendExtraIssues(builder, hasInlineIssues, extraIssuesTruncated);
@@ -90,6 +120,21 @@ public class GlobalReport {
       builder.append("\n#### Top ").append(maxGlobalReportedIssues).append(" issues\n");
     }
     builder.appendExtraIssues();
+    if (extraIssuesTruncated && extraIssuesByFile != null && extraIssuesByRule != null) {
+      appendTop(builder, "Top files", "File", extraIssuesByFile);
+      appendTop(builder, "Top rules", "Rule", extraIssuesByRule);
+    }
+  }
+
+  private static void appendTop(ReportBuilder builder, String title, String column, TopCounter counter) {
+    builder.append("\n#### ").append(title).append("\n\n")
+      .append("| ").append(column).append(" | Extra issues |\n")
+      .append("| --- | ---: |\n");
+    for (TopCounter.Entry entry : counter.top(SUMMARY_ROWS)) {
+      builder.append("| `").append(entry.key().replace("|", "\\|")).append("` | ")
+        // approximate count, after more distinct keys than the capacity of the counter
+        .append(entry.error() > 0 ? "~" : "").append(entry.count()).append(" |\n");
+    }
   }
 
   public String getStatusDescription() {
@@ -155,15 +200,61 @@ public class GlobalReport {
   }
 
   public void process(PostJobIssue issue, @Nullable URL gitHubUrl, boolean reportedOnDiff) {
+    if (reportedOnDiff) {
+      increment(issue.severity());
+    } else {
+      processExtraIssue(issue, () -> gitHubUrl);
+    }
+  }
+
+  /**
+   * Process an issue not reported on the diff.
+   * @param gitHubUrl GitHub URL of the issue, only called if the issue is listed in the report
+   */
+  public void processExtraIssue(PostJobIssue issue, Supplier<URL> gitHubUrl) {
     increment(issue.severity());
-    if (!reportedOnDiff) {
-      if (extraIssueCount < maxGlobalReportedIssues) {
-        builder.registerExtraIssue(issue, gitHubUrl);
-      }
-      extraIssueCount++;
+    if (extraIssueCount < maxGlobalReportedIssues) {
+      builder.registerExtraIssue(issue, gitHubUrl.get());
+    }
+    extraIssueCount++;
+    if (extraIssuesByFile != null && extraIssuesByRule != null) {
+      extraIssuesByFile.add(fileKey(issue));
+      extraIssuesByRule.add(issue.ruleKey().toString());
+    }
+  }
+
+  private static String fileKey(PostJobIssue issue) {
+    InputComponent inputComponent = issue.inputComponent();
+    if (inputComponent instanceof InputPath) {
+      return ((InputPath) inputComponent).relativePath();
+    }
+    return issue.componentKey();
+  }
+
+  /**
+   * Count issues reported on the diff, without processing them one by one.
+   * @param issueCountBySeverity number of issues indexed by {@link Severity#ordinal()}
+   */
+  public void processReportedOnDiff(int[] issueCountBySeverity) {
+    for (int i = 0; i < issueCountBySeverity.length; i++) {
+      newIssuesBySeverity[i] += issueCountBySeverity[i];
     }
   }
 
+  /**
+   * Add a note explaining how issues were reported, displayed after the summary.
+   */
+  public void addNote(String note) {
+    notes.add(note);
+  }
+
+  /**
+   * Report all issues as if inline comments were disabled, because the analysis decided not to publish any.
+   */
+  public void switchToSummaryOnly() {
+    tryReportIssuesInline = false;
+  }
+
   public boolean hasNewIssue() {
     return newIssues(Severity.BLOCKER) + newIssues(Severity.CRITICAL) + newIssues(Severity.MAJOR) + newIssues(Severity.MINOR) + newIssues(Severity.INFO) > 0;
   }
@@ -0,0 +1,87 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+
+/**
+ * Review comment to be published on a line of the pull request, with the issues it reports.
+ */
+class InlineComment {
+  private final InputFile inputFile;
+  private final int line;
+  private final StringBuilder body = new StringBuilder();
+  // Sorted by IssueComparator, so the first one is the most severe
+  private final List<PostJobIssue> issues = new ArrayList<>();
+  // Body as published, once the comment is complete
+  @CheckForNull
+  private String text;
+  private boolean upToDate = false;
+
+  InlineComment(InputFile inputFile, int line) {
+    this.inputFile = inputFile;
+    this.line = line;
+  }
+
+  InputFile inputFile() {
+    return inputFile;
+  }
+
+  int line() {
+    return line;
+  }
+
+  StringBuilder body() {
+    return body;
+  }
+
+  /**
+   * @return the body, only built once, so that the comment must not be changed afterwards
+   */
+  String text() {
+    if (text == null) {
+      text = body.toString();
+    }
+    return text;
+  }
+
+  /**
+   * @return true if the same comment is already published on the pull request, see {@link #setUpToDate(boolean)}
+   */
+  boolean isUpToDate() {
+    return upToDate;
+  }
+
+  void setUpToDate(boolean upToDate) {
+    this.upToDate = upToDate;
+  }
+
+  List<PostJobIssue> issues() {
+    return issues;
+  }
+
+  PostJobIssue mostSevereIssue() {
+    return issues.get(0);
+  }
+}
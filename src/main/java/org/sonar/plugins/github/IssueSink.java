@@ -0,0 +1,42 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+
+/**
+ * Receives the new issues of the analysis, in addition to the review comments and the global comment of the
+ * pull request.
+ */
+interface IssueSink {
+
+  void process(PostJobIssue issue);
+
+  /**
+   * Called once all issues were processed.
+   */
+  void finish();
+
+  /**
+   * Called instead of {@link #finish()} when the export is stopped by a failure, to release resources and remove
+   * what was partially exported.
+   */
+  void abort();
+}
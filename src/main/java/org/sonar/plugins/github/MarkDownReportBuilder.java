@@ -21,7 +21,9 @@ package org.sonar.plugins.github;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import org.sonar.api.batch.postjob.issue.PostJobIssue;
@@ -29,21 +31,32 @@ import org.sonar.api.batch.rule.Severity;
 
 public class MarkDownReportBuilder implements ReportBuilder {
 
+  private static final Map<Severity, String> IMAGE_LINK_DEFINITIONS = new EnumMap<>(Severity.class);
+  private static final Map<Severity, String> IMAGE_LINK_REFERENCES = new EnumMap<>(Severity.class);
+
+  static {
+    for (Severity severity : Severity.values()) {
+      IMAGE_LINK_DEFINITIONS.put(severity, "[" + severity.name() + "]: " + MarkDownUtils.getImageUrl(severity) + " 'Severity: " + severity.name() + "'");
+      IMAGE_LINK_REFERENCES.put(severity, "![" + severity.name() + "][" + severity.name() + "]");
+    }
+  }
+
   private final MarkDownUtils markDownUtils;
   private final StringBuilder sb = new StringBuilder();
 
   // note: ordered implementation for consistent user experience and testability
   private final Set<String> links = new TreeSet<>();
 
-  private final List<IssueHolder> extraIssues = new ArrayList<>();
+  // extra issues are rendered when registered, so that the issues themselves are not retained
+  private final List<RenderedIssue> extraIssues = new ArrayList<>();
 
-  private static class IssueHolder {
-    private final PostJobIssue issue;
-    private final URL gitHubUrl;
+  private static class RenderedIssue {
+    private final Severity severity;
+    private final String text;
 
-    private IssueHolder(PostJobIssue issue, URL gitHubUrl) {
-      this.issue = issue;
-      this.gitHubUrl = gitHubUrl;
+    private RenderedIssue(Severity severity, String text) {
+      this.severity = severity;
+      this.text = text;
     }
   }
 
@@ -65,16 +78,17 @@ public class MarkDownReportBuilder implements ReportBuilder {
   }
 
   private static String formatImageLinkDefinition(Severity severity) {
-    return String.format("[%s]: %s 'Severity: %s'", severity.name(), MarkDownUtils.getImageUrl(severity), severity.name());
+    return IMAGE_LINK_DEFINITIONS.get(severity);
   }
 
   private static String formatImageLinkReference(Severity severity) {
-    return String.format("![%s][%s]", severity.name(), severity.name());
+    return IMAGE_LINK_REFERENCES.get(severity);
   }
 
   @Override
   public ReportBuilder registerExtraIssue(PostJobIssue issue, URL gitHubUrl) {
-    extraIssues.add(new IssueHolder(issue, gitHubUrl));
+    String text = markDownUtils.globalIssue(issue.message(), issue.ruleKey().toString(), gitHubUrl, issue.componentKey());
+    extraIssues.add(new RenderedIssue(issue.severity(), text));
     return this;
   }
 
@@ -82,12 +96,10 @@ public class MarkDownReportBuilder implements ReportBuilder {
   public ReportBuilder appendExtraIssues() {
     // need a blank line before lists to be displayed correctly
     sb.append("\n");
-    for (IssueHolder holder : extraIssues) {
-      PostJobIssue issue = holder.issue;
-      links.add(formatImageLinkDefinition(issue.severity()));
-      String image = formatImageLinkReference(issue.severity());
-      String text = markDownUtils.globalIssue(issue.message(), issue.ruleKey().toString(), holder.gitHubUrl, issue.componentKey());
-      sb.append("1. ").append(image).append(" ").append(text).append("\n");
+    for (RenderedIssue issue : extraIssues) {
+      links.add(formatImageLinkDefinition(issue.severity));
+      String image = formatImageLinkReference(issue.severity);
+      sb.append("1. ").append(image).append(" ").append(issue.text).append("\n");
     }
     return this;
   }
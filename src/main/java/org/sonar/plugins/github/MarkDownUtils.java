@@ -22,7 +22,10 @@ package org.sonar.plugins.github;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
 import org.apache.commons.lang.StringUtils;
@@ -37,7 +40,24 @@ import org.sonar.api.config.Settings;
 public class MarkDownUtils {
 
   private static final String IMAGES_ROOT_URL = "https://sonarsource.github.io/sonar-github/";
+  private static final String RULE_IMAGE_LINK_START = "[![rule](" + IMAGES_ROOT_URL + "rule.png)](";
+  static final int MAX_CACHED_RULE_LINKS = 1_000;
+  private static final Map<Severity, String> IMAGE_LINKS = new EnumMap<>(Severity.class);
+
+  static {
+    for (Severity severity : Severity.values()) {
+      IMAGE_LINKS.put(severity, "![" + severity.name() + "](" + getImageUrl(severity) + " 'Severity: " + severity.name() + "')");
+    }
+  }
+
   private final String ruleUrlPrefix;
+  // Rule links only depend on the rule key, and the number of distinct rules is small compared to the number of issues
+  private final Map<String, String> ruleLinksByRuleKey = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > MAX_CACHED_RULE_LINKS;
+    }
+  };
 
   public MarkDownUtils(Settings settings) {
     // If server base URL was not configured in SQ server then is is better to take URL configured on batch side
@@ -45,18 +65,23 @@ public class MarkDownUtils {
     if (!baseUrl.endsWith("/")) {
       baseUrl += "/";
     }
-    this.ruleUrlPrefix = baseUrl;
+    this.ruleUrlPrefix = baseUrl + "coding_rules#rule_key=";
   }
 
   public String inlineIssue(Severity severity, String message, String ruleKey) {
-    String ruleLink = getRuleLink(ruleKey);
-    StringBuilder sb = new StringBuilder();
-    sb.append(formatImageLink(severity))
-      .append(" ")
+    return appendInlineIssue(new StringBuilder(), severity, message, ruleKey).toString();
+  }
+
+  /**
+   * Same as {@link #inlineIssue(Severity, String, String)} but appends to the provided builder,
+   * so that several issues on the same line can share a single buffer.
+   */
+  public StringBuilder appendInlineIssue(StringBuilder sb, Severity severity, String message, String ruleKey) {
+    return sb.append(formatImageLink(severity))
+      .append(' ')
       .append(message)
-      .append(" ")
-      .append(ruleLink);
-    return sb.toString();
+      .append(' ')
+      .append(getRuleLink(ruleKey));
   }
 
   private static String getLocation(URL url) {
@@ -81,7 +106,14 @@ public class MarkDownUtils {
   }
 
   String getRuleLink(String ruleKey) {
-    return "[![rule](" + IMAGES_ROOT_URL + "rule.png)](" + ruleUrlPrefix + "coding_rules#rule_key=" + encodeForUrlParam(ruleKey) + ")";
+    synchronized (ruleLinksByRuleKey) {
+      String link = ruleLinksByRuleKey.get(ruleKey);
+      if (link == null) {
+        link = RULE_IMAGE_LINK_START + ruleUrlPrefix + encodeForUrlParam(ruleKey) + ")";
+        ruleLinksByRuleKey.put(ruleKey, link);
+      }
+      return link;
+    }
   }
 
   static String encodeForUrlParam(String url) {
@@ -98,6 +130,6 @@ public class MarkDownUtils {
   }
 
   static String formatImageLink(Severity severity) {
-    return String.format("![%s](%s 'Severity: %s')", severity.name(), getImageUrl(severity), severity.name());
+    return IMAGE_LINKS.get(severity);
   }
 }
@@ -0,0 +1,190 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.Settings;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Publishes the {@link PublicationPlan} written by an analysis run with {@link GitHubPlugin#GITHUB_PUBLICATION_PLAN},
+ * outside of the scanner:
+ * <pre>
+ * java -Dsonar.github.oauth=&lt;token&gt; -cp &lt;plugin and sonar-plugin-api jars&gt; org.sonar.plugins.github.PlanPublisher &lt;plan file&gt;...
+ * </pre>
+ * The settings of the analysis are read from the plan, and can be overridden by the {@code sonar.*} system properties.
+ * Like the token, the proxy is not written to the plan: the {@code http.proxyHost}, {@code https.proxyHost}, {@code socksProxyHost}
+ * and related system properties of the analysis have to be passed again.
+ * Only the writes are deferred: the analysis still loads the pull request and its existing comments, and they are loaded
+ * again here, since the pull request may have changed in between.
+ * When the publication fails, the status of the pull request is left pending so that publishing the plan again completes it.
+ */
+public class PlanPublisher {
+
+  private static final Logger LOG = Loggers.get(PlanPublisher.class);
+  private static final String SETTINGS_PREFIX = "sonar.";
+
+  private final PullRequestFacade pullRequestFacade;
+
+  PlanPublisher(PullRequestFacade pullRequestFacade) {
+    this.pullRequestFacade = pullRequestFacade;
+  }
+
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      System.err.println("Usage: java " + PlanPublisher.class.getName() + " <plan file>...");
+      System.exit(2);
+    }
+    boolean published = true;
+    for (String arg : args) {
+      published &= publish(new File(arg), System.getProperties());
+    }
+    System.exit(published ? 0 : 1);
+  }
+
+  /**
+   * @param properties overrides of the settings of the plan, only the {@code sonar.*} ones are used
+   * @return true if the plan is completely published
+   */
+  static boolean publish(File planFile, Properties properties) {
+    PublicationPlan plan;
+    try {
+      plan = PublicationPlan.read(planFile);
+    } catch (IOException e) {
+      LOG.error("Unable to read the publication plan " + planFile, e);
+      return false;
+    }
+    try {
+      GitHubPluginConfiguration config = new GitHubPluginConfiguration(settings(plan, properties), System2.INSTANCE);
+      PullRequestFacade facade = new PullRequestFacade(config);
+      facade.init(config.pullRequestNumber(), new File("."));
+      WriteBudget writeBudget = WriteBudget.forPublication(config, System2.INSTANCE);
+      facade.setWriteDeadline(writeBudget.deadline());
+      return new PlanPublisher(facade).apply(plan, writeBudget);
+    } catch (RuntimeException e) {
+      LOG.error("Unable to publish the publication plan " + planFile, e);
+      return false;
+    }
+  }
+
+  private static Settings settings(PublicationPlan plan, Properties properties) {
+    Settings settings = new MapSettings(new PropertyDefinitions(GitHubPlugin.class));
+    for (Map.Entry<String, String> setting : plan.settings().entrySet()) {
+      settings.setProperty(setting.getKey(), setting.getValue());
+    }
+    for (String key : properties.stringPropertyNames()) {
+      if (key.startsWith(SETTINGS_PREFIX)) {
+        settings.setProperty(key, properties.getProperty(key));
+      }
+    }
+    return settings;
+  }
+
+  /**
+   * Publishes the plan on the pull request the facade is initialized for. If the pull request moved to another commit
+   * since the analysis, only the final status is set, on the analyzed commit, so that it is not left pending: the next
+   * analysis publishes up-to-date comments.
+   * @param writeBudget limits the writes of review comments, like during an analysis
+   * @return true if the plan is completely published
+   */
+  boolean apply(PublicationPlan plan, WriteBudget writeBudget) {
+    String headSha = pullRequestFacade.headSha();
+    if (!plan.headSha().equals(headSha)) {
+      LOG.warn("Publication plan of commit {} is outdated, the pull request is now at commit {}. Only its status is published.", plan.headSha(), headSha);
+      try {
+        pullRequestFacade.createOrUpdateSonarQubeStatus(plan.headSha(), plan.status(), plan.statusDescription());
+      } catch (RuntimeException e) {
+        LOG.error("Unable to set the status of commit " + plan.headSha(), e);
+      }
+      return false;
+    }
+    try {
+      List<PublicationPlan.ReviewComment> skippedComments = new ArrayList<>();
+      int overBudget = 0;
+      for (PublicationPlan.ReviewComment comment : plan.reviewComments()) {
+        if (!pullRequestFacade.hasFileLine(comment.path(), comment.line())) {
+          LOG.warn("Line {} of {} is not part of the pull request anymore, its review comment is skipped", comment.line(), comment.path());
+          skippedComments.add(comment);
+          continue;
+        }
+        boolean upToDate = pullRequestFacade.hasUpToDateReviewComment(comment.path(), comment.line(), comment.body());
+        if (writeBudget.tryConsume(upToDate ? 0 : 1)) {
+          pullRequestFacade.createOrUpdateReviewComment(comment.path(), comment.line(), comment.body());
+        } else {
+          skippedComments.add(comment);
+          overBudget++;
+        }
+      }
+      if (overBudget > 0) {
+        LOG.warn("{} review comments are skipped because the limit of GitHub write operations or the publication timeout was reached", overBudget);
+      }
+      pullRequestFacade.deleteOutdatedComments(writeBudget);
+      pullRequestFacade.createOrUpdateGlobalComments(globalComment(plan.globalComment(), skippedComments), writeBudget);
+      pullRequestFacade.writePublicationJournal();
+      pullRequestFacade.createOrUpdateSonarQubeStatus(plan.status(), plan.statusDescription());
+      return true;
+    } catch (RuntimeException e) {
+      LOG.error("Unable to publish the review of this pull request", e);
+      return false;
+    }
+  }
+
+  /**
+   * The global comment of the plan expects all review comments to be published: the issues of the skipped ones are
+   * listed at its end, like extra issues.
+   */
+  @CheckForNull
+  private String globalComment(@Nullable String markup, List<PublicationPlan.ReviewComment> skippedComments) {
+    if (skippedComments.isEmpty()) {
+      return markup;
+    }
+    StringBuilder issues = new StringBuilder();
+    int issueCount = 0;
+    for (PublicationPlan.ReviewComment comment : skippedComments) {
+      URL url = pullRequestFacade.getGithubUrl(comment.path(), comment.line());
+      String location = url != null
+        ? ("[" + comment.path().substring(comment.path().lastIndexOf('/') + 1) + "](" + url + ")")
+        : comment.path();
+      for (String issue : comment.body().split("\n")) {
+        if (!issue.isEmpty()) {
+          issues.append("1. ").append(location).append(": ").append(issue).append("\n");
+          issueCount++;
+        }
+      }
+    }
+    StringBuilder sb = new StringBuilder(markup != null ? markup : "");
+    sb.append("\nNote: ").append(issueCount).append(issueCount > 1 ? " issues" : " issue")
+      .append(" could not be reported as line comments when this review was published, they are listed here:\n\n")
+      .append(issues);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Local cache of the commentable files of pull requests. Locations of review comments only depend on the diff between
+ * the base and the head commits, so that the analyses of the same commit, like the modules of a multi-module build or
+ * the re-runs of a CI job, don't need to list the files of the pull request again.
+ * <p>
+ * One binary file per pair of commits, named after the hash of its key, memory-mapped when read:
+ * <pre>
+ * int version
+ * int number of files
+ * for each file: byte kind, int path length, path in UTF-8, int number of values, values
+ * </pre>
+ * Values are pairs of line and diff position, or the bounds of the changed line ranges. The least recently used files
+ * are evicted when there are more than {@link #MAX_ENTRIES}.
+ */
+class PositionIndexCache {
+
+  private static final Logger LOG = Loggers.get(PositionIndexCache.class);
+  static final int MAX_ENTRIES = 100;
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".idx";
+  private static final byte FILE_POSITIONS = 0;
+  private static final byte CHANGED_LINE_RANGES = 1;
+
+  private final Path dir;
+  private final int maxEntries;
+
+  PositionIndexCache(Path dir) {
+    this(dir, MAX_ENTRIES);
+  }
+
+  PositionIndexCache(Path dir, int maxEntries) {
+    this.dir = dir;
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * @param variant how files were read, since the same diff gives different locations by line and by position
+   * @return files of the pull request by path, or null if they are not cached or can't be read
+   */
+  @CheckForNull
+  Map<String, CommentableFile> read(String repository, String baseSha, String headSha, String variant) {
+    Path file = file(repository, baseSha, headSha, variant);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != VERSION) {
+        return null;
+      }
+      int fileCount = buffer.getInt();
+      Map<String, CommentableFile> files = new HashMap<>();
+      for (int i = 0; i < fileCount; i++) {
+        CommentableFile commentableFile = readFile(buffer);
+        files.put(commentableFile.path(), commentableFile);
+      }
+      // Least recently used entries are the oldest ones
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return files;
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Ignoring unreadable position cache " + file, e);
+      return null;
+    }
+  }
+
+  private static CommentableFile readFile(ByteBuffer buffer) {
+    byte kind = buffer.get();
+    byte[] path = new byte[buffer.getInt()];
+    buffer.get(path);
+    int[] values = new int[buffer.getInt()];
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + values.length * Integer.BYTES);
+    String pathString = new String(path, StandardCharsets.UTF_8);
+    if (kind == CHANGED_LINE_RANGES) {
+      return new ChangedLineRanges(pathString, values);
+    }
+    if (kind != FILE_POSITIONS) {
+      throw new IllegalStateException("Unexpected kind of file: " + kind);
+    }
+    Map<Integer, Integer> positions = new HashMap<>();
+    for (int i = 0; i < values.length; i += 2) {
+      positions.put(values[i], values[i + 1]);
+    }
+    return new PullRequestFacade.FilePositions(pathString, positions);
+  }
+
+  void write(String repository, String baseSha, String headSha, String variant, Map<String, CommentableFile> files) {
+    Path file = file(repository, baseSha, headSha, variant);
+    try {
+      Files.createDirectories(dir);
+      Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        output.writeInt(VERSION);
+        output.writeInt(files.size());
+        for (CommentableFile commentableFile : files.values()) {
+          writeFile(output, commentableFile);
+        }
+      }
+      LocalFiles.move(tmp, file);
+      evict();
+    } catch (IOException e) {
+      // The cache is only an optimization
+      LOG.warn("Unable to write position cache " + file, e);
+    }
+  }
+
+  private static void writeFile(DataOutputStream output, CommentableFile commentableFile) throws IOException {
+    int[] values;
+    if (commentableFile instanceof ChangedLineRanges) {
+      output.writeByte(CHANGED_LINE_RANGES);
+      values = ((ChangedLineRanges) commentableFile).bounds();
+    } else if (commentableFile instanceof PullRequestFacade.FilePositions) {
+      output.writeByte(FILE_POSITIONS);
+      Map<Integer, Integer> positions = ((PullRequestFacade.FilePositions) commentableFile).patchLocationMapping();
+      values = new int[positions.size() * 2];
+      int i = 0;
+      for (Map.Entry<Integer, Integer> position : positions.entrySet()) {
+        values[i++] = position.getKey();
+        values[i++] = position.getValue();
+      }
+    } else {
+      throw new IllegalArgumentException("Unsupported file: " + commentableFile.getClass());
+    }
+    byte[] path = commentableFile.path().getBytes(StandardCharsets.UTF_8);
+    output.writeInt(path.length);
+    output.write(path);
+    output.writeInt(values.length);
+    for (int value : values) {
+      output.writeInt(value);
+    }
+  }
+
+  private void evict() throws IOException {
+    List<Path> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+      stream.forEach(entries::add);
+    }
+    if (entries.size() <= maxEntries) {
+      return;
+    }
+    Map<Path, FileTime> lastUses = new HashMap<>();
+    for (Path entry : entries) {
+      lastUses.put(entry, Files.getLastModifiedTime(entry));
+    }
+    entries.sort(Comparator.comparing(lastUses::get));
+    for (Path entry : entries.subList(0, entries.size() - maxEntries)) {
+      // Another analysis may be evicting the same entry
+      Files.deleteIfExists(entry);
+    }
+  }
+
+  Path file(String repository, String baseSha, String headSha, String variant) {
+    return dir.resolve(LocalFiles.hashedName(SUFFIX, repository, baseSha, headSha, variant));
+  }
+}
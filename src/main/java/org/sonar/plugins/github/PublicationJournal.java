@@ -0,0 +1,194 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Local record of the comments published by the last analysis of a pull request, so that the next analysis
+ * of the same head commit (or of a later commit, in incremental mode) does not have to list all comments of
+ * the pull request to find its own.
+ * <p>
+ * One small text file per pull request:
+ * <pre>
+ * v2
+ * sha &lt;head sha&gt;
+ * base &lt;base sha&gt;
+ * time &lt;epoch millis&gt;
+ * location &lt;position or line&gt;
+ * review &lt;id&gt; &lt;location&gt; &lt;body hash&gt; &lt;path&gt;
+ * global &lt;id&gt; &lt;body hash&gt;
+ * </pre>
+ */
+class PublicationJournal {
+
+  private static final Logger LOG = Loggers.get(PublicationJournal.class);
+  private static final String VERSION = "v2";
+  private static final String SEPARATOR = "\t";
+
+  private final File dir;
+
+  PublicationJournal(File dir) {
+    this.dir = dir;
+  }
+
+  static class Entry {
+    private final String headSha;
+    private final String baseSha;
+    private final long writtenAt;
+    private final String location;
+    private final List<PublishedComment> reviewComments;
+    private final List<PublishedComment> globalComments;
+
+    /**
+     * @param location field locating the review comments in their file, "position" or "line"
+     */
+    Entry(String headSha, String baseSha, long writtenAt, String location, List<PublishedComment> reviewComments, List<PublishedComment> globalComments) {
+      this.headSha = headSha;
+      this.baseSha = baseSha;
+      this.writtenAt = writtenAt;
+      this.location = location;
+      this.reviewComments = reviewComments;
+      this.globalComments = globalComments;
+    }
+
+    String headSha() {
+      return headSha;
+    }
+
+    String baseSha() {
+      return baseSha;
+    }
+
+    long writtenAt() {
+      return writtenAt;
+    }
+
+    String location() {
+      return location;
+    }
+
+    List<PublishedComment> reviewComments() {
+      return reviewComments;
+    }
+
+    List<PublishedComment> globalComments() {
+      return globalComments;
+    }
+  }
+
+  /**
+   * @return the journal of the last analysis of the pull request, or null if there is none or it can't be read
+   */
+  @CheckForNull
+  Entry read(String repository, int pullRequestNumber) {
+    Path file = file(repository, pullRequestNumber);
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      if (!VERSION.equals(reader.readLine())) {
+        return null;
+      }
+      String sha = value(reader.readLine(), "sha");
+      String baseSha = value(reader.readLine(), "base");
+      long writtenAt = Long.parseLong(value(reader.readLine(), "time"));
+      String location = value(reader.readLine(), "location");
+      List<PublishedComment> reviewComments = new ArrayList<>();
+      List<PublishedComment> globalComments = new ArrayList<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("review" + SEPARATOR)) {
+          String[] fields = line.split(SEPARATOR, 5);
+          reviewComments.add(new PublishedComment(Long.parseLong(fields[1]), fields[4], Integer.parseInt(fields[2]), Long.parseUnsignedLong(fields[3], 16)));
+        } else if (line.startsWith("global" + SEPARATOR)) {
+          String[] fields = line.split(SEPARATOR, 3);
+          globalComments.add(new PublishedComment(Long.parseLong(fields[1]), null, 0, Long.parseUnsignedLong(fields[2], 16)));
+        } else {
+          throw new IllegalStateException("Unexpected line: " + line);
+        }
+      }
+      return new Entry(sha, baseSha, writtenAt, location, reviewComments, globalComments);
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Ignoring unreadable publication journal " + file, e);
+      return null;
+    }
+  }
+
+  void write(String repository, int pullRequestNumber, Entry entry) {
+    Path file = file(repository, pullRequestNumber);
+    try {
+      Files.createDirectories(file.getParent());
+      Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        writer.append(VERSION).append('\n');
+        writer.append("sha").append(SEPARATOR).append(entry.headSha()).append('\n');
+        writer.append("base").append(SEPARATOR).append(entry.baseSha()).append('\n');
+        writer.append("time").append(SEPARATOR).append(Long.toString(entry.writtenAt())).append('\n');
+        writer.append("location").append(SEPARATOR).append(entry.location()).append('\n');
+        for (PublishedComment comment : entry.reviewComments()) {
+          writer.append("review").append(SEPARATOR).append(Long.toString(comment.id()))
+            .append(SEPARATOR).append(Integer.toString(comment.position()))
+            .append(SEPARATOR).append(Long.toHexString(comment.bodyHash()))
+            .append(SEPARATOR).append(comment.path()).append('\n');
+        }
+        for (PublishedComment comment : entry.globalComments()) {
+          writer.append("global").append(SEPARATOR).append(Long.toString(comment.id()))
+            .append(SEPARATOR).append(Long.toHexString(comment.bodyHash())).append('\n');
+        }
+      }
+      LocalFiles.move(tmp, file);
+    } catch (IOException e) {
+      // The journal is only an optimization
+      LOG.warn("Unable to write publication journal " + file, e);
+    }
+  }
+
+  void delete(String repository, int pullRequestNumber) {
+    Path file = file(repository, pullRequestNumber);
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOG.warn("Unable to delete publication journal " + file, e);
+    }
+  }
+
+  Path file(String repository, int pullRequestNumber) {
+    return dir.toPath().resolve(LocalFiles.hashedName(".journal", repository, Integer.toString(pullRequestNumber)));
+  }
+
+  private static String value(String line, String key) {
+    if (line == null || !line.startsWith(key + SEPARATOR)) {
+      throw new IllegalStateException("Expected " + key + " but got: " + line);
+    }
+    return line.substring(key.length() + SEPARATOR.length());
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.kohsuke.github.GHCommitState;
+
+/**
+ * What an analysis would publish on a pull request, written instead of being published so that
+ * {@link PlanPublisher} publishes it later, outside of the scanner.
+ * <p>
+ * One text file, where tabulations, line breaks and backslashes of values are escaped:
+ * <pre>
+ * v1
+ * setting &lt;key&gt; &lt;value&gt;
+ * sha &lt;head sha&gt;
+ * status &lt;state&gt; &lt;description&gt;
+ * global &lt;markup&gt;
+ * review &lt;line&gt; &lt;path&gt; &lt;body&gt;
+ * </pre>
+ * The global line is missing when there is no global comment. Review comments are ordered by decreasing severity.
+ */
+class PublicationPlan {
+
+  static final String FILE_NAME = "github-publication.plan";
+  private static final String VERSION = "v1";
+  private static final String SEPARATOR = "\t";
+
+  private final Map<String, String> settings;
+  private final String headSha;
+  private final List<ReviewComment> reviewComments = new ArrayList<>();
+  @Nullable
+  private String globalComment;
+  private GHCommitState status = GHCommitState.PENDING;
+  private String statusDescription = "";
+
+  /**
+   * @param settings settings of the plugin used to publish the plan, see {@link GitHubPluginConfiguration#publicationSettings()}
+   * @param headSha commit of the pull request for which the plan is computed
+   */
+  PublicationPlan(Map<String, String> settings, String headSha) {
+    this.settings = new TreeMap<>(settings);
+    this.headSha = headSha;
+  }
+
+  static class ReviewComment {
+    private final String path;
+    private final int line;
+    private final String body;
+
+    ReviewComment(String path, int line, String body) {
+      this.path = path;
+      this.line = line;
+      this.body = body;
+    }
+
+    String path() {
+      return path;
+    }
+
+    int line() {
+      return line;
+    }
+
+    String body() {
+      return body;
+    }
+  }
+
+  Map<String, String> settings() {
+    return Collections.unmodifiableMap(settings);
+  }
+
+  String headSha() {
+    return headSha;
+  }
+
+  void addReviewComment(String path, int line, String body) {
+    reviewComments.add(new ReviewComment(path, line, body));
+  }
+
+  List<ReviewComment> reviewComments() {
+    return Collections.unmodifiableList(reviewComments);
+  }
+
+  /**
+   * @param markup global comment, or null to only delete the previous ones
+   */
+  void setGlobalComment(@Nullable String markup) {
+    this.globalComment = markup;
+  }
+
+  @CheckForNull
+  String globalComment() {
+    return globalComment;
+  }
+
+  void setStatus(GHCommitState status, String description) {
+    this.status = status;
+    this.statusDescription = description;
+  }
+
+  GHCommitState status() {
+    return status;
+  }
+
+  String statusDescription() {
+    return statusDescription;
+  }
+
+  void write(File file) throws IOException {
+    Path target = file.toPath();
+    Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      writer.append(VERSION).append('\n');
+      for (Map.Entry<String, String> setting : settings.entrySet()) {
+        writer.append("setting").append(SEPARATOR).append(escape(setting.getKey())).append(SEPARATOR).append(escape(setting.getValue())).append('\n');
+      }
+      writer.append("sha").append(SEPARATOR).append(headSha).append('\n');
+      writer.append("status").append(SEPARATOR).append(status.name()).append(SEPARATOR).append(escape(statusDescription)).append('\n');
+      if (globalComment != null) {
+        writer.append("global").append(SEPARATOR).append(escape(globalComment)).append('\n');
+      }
+      for (ReviewComment comment : reviewComments) {
+        writer.append("review").append(SEPARATOR).append(Integer.toString(comment.line))
+          .append(SEPARATOR).append(escape(comment.path))
+          .append(SEPARATOR).append(escape(comment.body)).append('\n');
+      }
+    }
+    LocalFiles.move(tmp, target);
+  }
+
+  static PublicationPlan read(File file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      if (!VERSION.equals(reader.readLine())) {
+        throw new IOException("Unsupported version of publication plan");
+      }
+      Map<String, String> settings = new TreeMap<>();
+      PublicationPlan plan = null;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if ("setting".equals(fields[0]) && fields.length == 3 && plan == null) {
+          settings.put(unescape(fields[1]), unescape(fields[2]));
+        } else if ("sha".equals(fields[0]) && fields.length == 2 && plan == null) {
+          plan = new PublicationPlan(settings, fields[1]);
+        } else if ("status".equals(fields[0]) && fields.length == 3 && plan != null) {
+          plan.setStatus(GHCommitState.valueOf(fields[1]), unescape(fields[2]));
+        } else if ("global".equals(fields[0]) && fields.length == 2 && plan != null) {
+          plan.setGlobalComment(unescape(fields[1]));
+        } else if ("review".equals(fields[0]) && fields.length == 4 && plan != null) {
+          plan.addReviewComment(unescape(fields[2]), Integer.parseInt(fields[1]), unescape(fields[3]));
+        } else {
+          throw new IOException("Unexpected line in publication plan: " + line);
+        }
+      }
+      if (plan == null) {
+        throw new IOException("Missing commit in publication plan");
+      }
+      return plan;
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid publication plan", e);
+    }
+  }
+
+  static String escape(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\') {
+        sb.append("\\\\");
+      } else if (c == '\t') {
+        sb.append("\\t");
+      } else if (c == '\n') {
+        sb.append("\\n");
+      } else if (c == '\r') {
+        sb.append("\\r");
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  static String unescape(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      if (++i == value.length()) {
+        throw new IllegalArgumentException("Invalid escape at the end of " + value);
+      }
+      char escaped = value.charAt(i);
+      if (escaped == 't') {
+        sb.append('\t');
+      } else if (escaped == 'n') {
+        sb.append('\n');
+      } else if (escaped == 'r') {
+        sb.append('\r');
+      } else {
+        sb.append(escaped);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * What we need to remember about a comment published by the plugin: enough to find it again, and
+ * to know if its content is still up to date, without keeping its body.
+ */
+class PublishedComment {
+
+  private final long id;
+  @Nullable
+  private final String path;
+  private final int position;
+  private final long bodyHash;
+
+  /**
+   * @param path file path of a review comment, or null for a global comment
+   */
+  PublishedComment(long id, @Nullable String path, int position, long bodyHash) {
+    this.id = id;
+    this.path = path;
+    this.position = position;
+    this.bodyHash = bodyHash;
+  }
+
+  long id() {
+    return id;
+  }
+
+  @CheckForNull
+  String path() {
+    return path;
+  }
+
+  int position() {
+    return position;
+  }
+
+  long bodyHash() {
+    return bodyHash;
+  }
+
+  boolean hasBody(String body) {
+    return bodyHash == hash(body);
+  }
+
+  /**
+   * First 64 bits of the SHA-1 of the body: small enough to be kept for thousands of comments, and still
+   * without practical risk of collision between two comments of a pull request.
+   */
+  static long hash(String body) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(body.getBytes(StandardCharsets.UTF_8));
+      long hash = 0;
+      for (int i = 0; i < Long.BYTES; i++) {
+        hash = (hash << 8) | (digest[i] & 0xFF);
+      }
+      return hash;
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 not supported", e);
+    }
+  }
+}
@@ -19,28 +19,48 @@
  */
 package org.sonar.plugins.github;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.net.MalformedURLException;
+import java.net.Proxy;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.github.GHCommitState;
-import org.kohsuke.github.GHCommitStatus;
-import org.kohsuke.github.GHIssueComment;
 import org.kohsuke.github.GHPullRequest;
-import org.kohsuke.github.GHPullRequestFileDetail;
-import org.kohsuke.github.GHPullRequestReviewComment;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
 import org.kohsuke.github.GitHubBuilder;
@@ -65,35 +85,177 @@ public class PullRequestFacade {
   private static final Logger LOG = Loggers.get(PullRequestFacade.class);
 
   static final String COMMIT_CONTEXT = "sonarqube";
+  // Tolerated clock difference between this machine and GitHub when listing comments updated since a given time
+  private static final long CLOCK_SKEW_MS = TimeUnit.MINUTES.toMillis(10);
+  // The compare API does not return more files than that
+  private static final int MAX_COMPARED_FILES = 300;
+  // Position of review comments that GitHub considers outdated
+  private static final int OUTDATED_POSITION = -1;
+  // Biggest page size accepted by GitHub
+  static final int MAX_PAGE_SIZE = 100;
+  // Biggest gzipped SARIF file accepted by the code scanning API
+  static final int MAX_GZIPPED_SARIF_SIZE = 10 * 1024 * 1024;
+  // Header of a hunk of a unified diff: group 1 is the first line of the hunk in the new file, group 2 its number of lines if not 1
+  static final Pattern HUNK_HEADER = Pattern.compile("@@\\p{IsWhite_Space}-[0-9]+(?:,[0-9]+)?\\p{IsWhite_Space}\\+([0-9]+)(?:,([0-9]+))?\\p{IsWhite_Space}@@.*");
 
   private final GitHubPluginConfiguration config;
-  private Map<String, Map<Integer, Integer>> patchPositionMappingByFile;
-  private Map<String, Map<Integer, GHPullRequestReviewComment>> existingReviewCommentsByLocationByFile = new HashMap<>();
+  // Files of the pull request, by path
+  private Map<String, CommentableFile> commentableFiles;
+  // Review comments previously published by the plugin, by file and position. Those still there at the end of the
+  // publication are outdated, and deleted.
+  private final Map<String, Map<Integer, PublishedComment>> existingReviewCommentsByLocationByFile = new HashMap<>();
+  // Previous review comments hidden by another comment on the same location, always deleted
+  private final Set<PublishedComment> duplicatedReviewComments = new LinkedHashSet<>();
   private GHRepository ghRepo;
   private GHPullRequest pr;
-  private Map<Long, GHPullRequestReviewComment> reviewCommentToBeDeletedById = new HashMap<>();
+  // URL of the files at the head of the pull request, with a trailing slash, resolved once for all the issues
+  @Nullable
+  private String blobUrlPrefix;
   private File gitBaseDir;
   private String myself;
+  private GitHubRestClient restClient;
+  private CircuitBreaker circuitBreaker = CircuitBreaker.disabled();
+  private Tracer tracer = Tracer.disabled();
+  private File workDir;
+  // Only the commit status and the summary comment are published, because GitHub was unhealthy when the analysis started
+  private boolean minimalPublication = false;
+  private String repositoryPath;
+  @Nullable
+  private PublicationJournal journal;
+  @Nullable
+  private PositionIndexCache positionCache;
+  // Global comments known from the publication journal, or null if they have to be listed
+  @Nullable
+  private List<PublishedComment> journaledGlobalComments;
+  // Global comments were not all listed before the deadline, so the journal would lose track of some of them
+  private boolean globalCommentsPartiallyListed = false;
+  // Previous analysis of the pull request with the same base, and files changed since, in incremental mode
+  @Nullable
+  private String previousHeadSha;
+  private Set<String> filesChangedSincePreviousHead = Collections.emptySet();
+  private final List<PublishedComment> publishedReviewComments = new ArrayList<>();
+  private final List<PublishedComment> publishedGlobalComments = new ArrayList<>();
+  // Latest status of the SonarQube context, shared by the pending and the final status updates
+  @Nullable
+  private CommitStatus lastStatus;
+  private boolean lastStatusLoaded = false;
+  // Initialization running in the background, see initInBackground
+  @Nullable
+  private Future<Void> pendingInit;
 
   public PullRequestFacade(GitHubPluginConfiguration config) {
     this.config = config;
   }
 
   public void init(int pullRequestNumber, File projectBaseDir) {
+    try (Tracer.Span span = tracer.start("init", "connect")) {
+      connect(pullRequestNumber, projectBaseDir);
+    }
+    loadPullRequestContent();
+  }
+
+  /**
+   * Only loads the pull request and sets the pending status before the analysis starts, so that a connection or
+   * authentication failure still fails the analysis early. Existing comments and patches are loaded in the background
+   * while the analysis runs, and {@link #awaitInit()} has to be called before using the facade.
+   */
+  public void initInBackground(int pullRequestNumber, File projectBaseDir, String pendingStatusDescription) {
+    try (Tracer.Span span = tracer.start("init", "connect")) {
+      connect(pullRequestNumber, projectBaseDir);
+    }
+    createPendingSonarQubeStatus(pendingStatusDescription);
+    FutureTask<Void> task = new FutureTask<>(() -> {
+      try {
+        loadPullRequestContent();
+      } catch (RuntimeException e) {
+        // The post job will fail without knowing if the pending status was set
+        createOrUpdateSonarQubeStatus(GHCommitState.ERROR, StringUtils.abbreviate("SonarQube analysis failed: " + e.getMessage(), 140));
+        throw e;
+      }
+      return null;
+    });
+    Thread thread = new Thread(task, "GitHub pull request loader");
+    thread.setDaemon(true);
+    thread.start();
+    pendingInit = task;
+  }
+
+  /**
+   * Wait for the end of {@link #initInBackground(int, File, String)}, if it was used.
+   */
+  public void awaitInit() {
+    if (pendingInit == null) {
+      return;
+    }
+    try (Tracer.Span span = tracer.start("init", "awaitInit")) {
+      pendingInit.get();
+      pendingInit = null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading the pull request", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void connect(int pullRequestNumber, File projectBaseDir) {
     initGitBaseDir(projectBaseDir);
     try {
       GitHub github;
+      Proxy proxy = null;
       if (config.isProxyConnectionEnabled()) {
-        github = new GitHubBuilder().withProxy(config.getHttpProxy()).withEndpoint(config.endpoint()).withOAuthToken(config.oauth()).build();
+        proxy = config.getHttpProxy();
+        github = new GitHubBuilder().withProxy(proxy).withEndpoint(config.endpoint()).withOAuthToken(config.oauth()).build();
       } else {
         github = new GitHubBuilder().withEndpoint(config.endpoint()).withOAuthToken(config.oauth()).build();
       }
+      setCircuitBreaker(new CircuitBreaker(config.circuitBreakerFailureThreshold(), config.circuitBreakerSlowCallThresholdMs(),
+        new File(config.stateDir(), "circuit-breaker").toPath().resolve(LocalFiles.hashedName(".state", config.endpoint())),
+        System::currentTimeMillis));
+      SharedRateLimiter rateLimiter = new SharedRateLimiter(config.sharedRateLimit(),
+        SharedRateLimiter.stateFile(new File(config.stateDir(), "rate-limit").toPath(), config.endpoint(), config.oauth()), System::currentTimeMillis, Thread::sleep);
+      setRestClient(new GitHubRestClient(config.endpoint(), config.oauth(), proxy, new RetryPolicy(RetryPolicy.DEFAULT_MAX_ATTEMPTS), circuitBreaker, tracer,
+        rateLimiter));
       setGhRepo(github.getRepository(config.repository()));
       setPr(ghRepo.getPullRequest(pullRequestNumber));
       LOG.info("Starting analysis of pull request: " + pr.getHtmlUrl());
       myself = github.getMyself().getLogin();
-      loadExistingReviewComments();
-      patchPositionMappingByFile = mapPatchPositionsToLines(pr);
+      if (config.isPublicationJournalEnabled()) {
+        setJournal(new PublicationJournal(new File(config.stateDir(), "journal")));
+      }
+      if (config.isPositionCacheEnabled()) {
+        setPositionCache(new PositionIndexCache(new File(config.stateDir(), "positions").toPath()));
+      }
+    } catch (IOException e) {
+      LOG.debug("Unable to perform GitHub WS operation", e);
+      throw MessageException.of("Unable to perform GitHub WS operation: " + e.getMessage());
+    }
+  }
+
+  private void loadPullRequestContent() {
+    try {
+      if (isGitHubDegraded()) {
+        LOG.warn("GitHub is unhealthy, only the commit status and the summary comment will be updated");
+        minimalPublication = true;
+        // No review comment will be published, all issues go to the summary comment
+        commentableFiles = Collections.emptyMap();
+        return;
+      }
+      boolean journaled;
+      try (Tracer.Span span = tracer.start("init", "loadJournaledComments")) {
+        journaled = loadJournaledComments();
+      }
+      if (!journaled) {
+        try (Tracer.Span span = tracer.start("init", "loadExistingReviewComments")) {
+          loadExistingReviewComments();
+        }
+      }
+      try (Tracer.Span span = tracer.start("init", "loadCommentableFiles")) {
+        commentableFiles = loadCommentableFiles(pr);
+      }
     } catch (IOException e) {
       LOG.debug("Unable to perform GitHub WS operation", e);
       throw MessageException.of("Unable to perform GitHub WS operation: " + e.getMessage());
@@ -112,10 +274,66 @@ public class PullRequestFacade {
 
   void setGhRepo(GHRepository ghRepo) {
     this.ghRepo = ghRepo;
+    this.repositoryPath = "/repos/" + ghRepo.getFullName();
+    this.blobUrlPrefix = null;
   }
 
   void setPr(GHPullRequest pr) {
     this.pr = pr;
+    this.blobUrlPrefix = null;
+  }
+
+  void setRestClient(GitHubRestClient restClient) {
+    this.restClient = restClient;
+  }
+
+  void setPatchPositionMappingByFile(Map<String, Map<Integer, Integer>> patchPositionMappingByFile) {
+    commentableFiles = new HashMap<>();
+    for (Map.Entry<String, Map<Integer, Integer>> file : patchPositionMappingByFile.entrySet()) {
+      commentableFiles.put(file.getKey(), new FilePositions(file.getKey(), file.getValue()));
+    }
+  }
+
+  void setCommentableFiles(Map<String, CommentableFile> commentableFiles) {
+    this.commentableFiles = commentableFiles;
+  }
+
+  void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * To be called before the initialization, so that GitHub requests are traced.
+   */
+  void setTracer(Tracer tracer) {
+    this.tracer = tracer;
+  }
+
+  Tracer tracer() {
+    return tracer;
+  }
+
+  void setWorkDir(File workDir) {
+    this.workDir = workDir;
+  }
+
+  /**
+   * @return work directory of the scanner, where files generated for the pull request are written
+   */
+  File workDir() {
+    return workDir;
+  }
+
+  void setJournal(@Nullable PublicationJournal journal) {
+    this.journal = journal;
+  }
+
+  void setPositionCache(@Nullable PositionIndexCache positionCache) {
+    this.positionCache = positionCache;
+  }
+
+  void setMyself(String myself) {
+    this.myself = myself;
   }
 
   public File findGitBaseDir(@Nullable File baseDir) {
@@ -136,41 +354,352 @@ public class PullRequestFacade {
    * Load all previous comments made by provided github account.
    */
   private void loadExistingReviewComments() throws IOException {
-    for (GHPullRequestReviewComment comment : pr.listReviewComments()) {
-      if (!myself.equals(comment.getUser().getLogin())) {
+    String locationField = locationField();
+    restClient.forEachItem(repositoryPath + "/pulls/" + pr.getNumber() + "/comments?per_page=" + MAX_PAGE_SIZE,
+      parser -> readAuthoredComment(parser, locationField), comment -> {
         // Ignore comments from other users
-        continue;
+        if (myself.equals(comment.login)) {
+          registerExistingReviewComment(comment.toPublishedComment());
+        }
+      });
+  }
+
+  /**
+   * @return the field of review comments giving their location in the file: the diff position for the legacy API,
+   * or the line of the new version of the file
+   */
+  private String locationField() {
+    return config.isReviewCommentByLine() ? "line" : "position";
+  }
+
+  void registerExistingReviewComment(PublishedComment comment) {
+    // By default all previous comments will be deleted, unless they are matched by a new comment
+    PublishedComment hidden = existingReviewCommentsByLocationByFile.computeIfAbsent(comment.path(), p -> new HashMap<>()).put(comment.position(), comment);
+    if (hidden != null) {
+      duplicatedReviewComments.add(hidden);
+    }
+  }
+
+  /**
+   * GitHub lists review comments with their location in the current version of the pull request: a comment whose
+   * lines were only shifted is found on its new location, and reused as is. Comments that GitHub considers outdated
+   * can't be moved, and are deleted.
+   */
+  @CheckForNull
+  private PublishedComment findExistingReviewComment(String path, int location) {
+    Map<Integer, PublishedComment> byLocation = existingReviewCommentsByLocationByFile.get(path);
+    return byLocation != null ? byLocation.get(location) : null;
+  }
+
+  private void unregisterExistingReviewComment(PublishedComment comment) {
+    Map<Integer, PublishedComment> byLocation = existingReviewCommentsByLocationByFile.get(comment.path());
+    if (byLocation == null || !byLocation.remove(comment.position(), comment)) {
+      duplicatedReviewComments.remove(comment);
+    }
+  }
+
+  /**
+   * Use the comments recorded in the publication journal by the previous analysis, if GitHub confirms that none of them
+   * was modified since. The journal is used as is for a new analysis of the same commit. In incremental mode, it is also
+   * used after new commits were pushed, and only the comments of the files changed by these commits are loaded again.
+   * @return true if the journal could be trusted
+   */
+  private boolean loadJournaledComments() throws IOException {
+    if (journal == null) {
+      return false;
+    }
+    int pullRequestNumber = pr.getNumber();
+    String repository = ghRepo.getFullName();
+    PublicationJournal.Entry entry = journal.read(repository, pullRequestNumber);
+    // Consume the journal: it will only be written again once the publication is complete
+    journal.delete(repository, pullRequestNumber);
+    if (entry == null || !entry.location().equals(locationField())) {
+      return false;
+    }
+    Set<String> changedFiles;
+    if (entry.headSha().equals(pr.getHead().getSha())) {
+      changedFiles = Collections.emptySet();
+    } else if (config.isIncremental() && entry.baseSha().equals(pr.getBase().getSha())) {
+      changedFiles = filesChangedSince(entry.headSha());
+      if (changedFiles == null) {
+        LOG.debug("Unable to compare commit {} with the head of the pull request", entry.headSha());
+        return false;
+      }
+      previousHeadSha = entry.headSha();
+      filesChangedSincePreviousHead = changedFiles;
+    } else {
+      return false;
+    }
+    String since = since(entry.writtenAt());
+    if (!isUnchangedSince("/pulls/" + pullRequestNumber + "/comments", since, entry.reviewComments())
+      || !isUnchangedSince("/issues/" + pullRequestNumber + "/comments", since, entry.globalComments())) {
+      LOG.debug("Publication journal is outdated");
+      return false;
+    }
+    LOG.debug("Using publication journal of the previous analysis of commit {}", entry.headSha());
+    // The position of comments on changed files may have moved
+    int changedComments = 0;
+    for (PublishedComment comment : entry.reviewComments()) {
+      if (changedFiles.contains(comment.path())) {
+        changedComments++;
       }
-      if (!existingReviewCommentsByLocationByFile.containsKey(comment.getPath())) {
-        existingReviewCommentsByLocationByFile.put(comment.getPath(), new HashMap<Integer, GHPullRequestReviewComment>());
+    }
+    if (changedComments > entry.reviewComments().size() / MAX_PAGE_SIZE + 1) {
+      // Listing all review comments needs fewer requests than loading the changed ones one by one
+      loadExistingReviewComments();
+    } else {
+      for (PublishedComment comment : entry.reviewComments()) {
+        if (changedFiles.contains(comment.path())) {
+          comment = reloadReviewComment(comment.id());
+        }
+        if (comment != null) {
+          registerExistingReviewComment(comment);
+        }
+      }
+    }
+    journaledGlobalComments = new ArrayList<>(entry.globalComments());
+    return true;
+  }
+
+  private static String since(long time) {
+    return Instant.ofEpochMilli(time - CLOCK_SKEW_MS).truncatedTo(ChronoUnit.SECONDS).toString();
+  }
+
+  /**
+   * Only loads comments updated after the journal was written, which is cheap as long as the
+   * pull request was not heavily discussed in the meantime.
+   */
+  private boolean isUnchangedSince(String listPath, String since, List<PublishedComment> journaledComments) throws IOException {
+    Map<Long, PublishedComment> journaledById = new HashMap<>();
+    for (PublishedComment comment : journaledComments) {
+      journaledById.put(comment.id(), comment);
+    }
+    GitHubRestClient.Page<AuthoredComment> page = restClient.getPage(repositoryPath + listPath + "?per_page=100&since=" + since,
+      parser -> readAuthoredComment(parser, locationField()));
+    if (page.hasNext()) {
+      return false;
+    }
+    for (AuthoredComment comment : page.items()) {
+      if (myself.equals(comment.login)) {
+        PublishedComment journaled = journaledById.get(comment.id);
+        if (journaled == null || journaled.bodyHash() != comment.bodyHash) {
+          return false;
+        }
       }
-      // By default all previous comments will be marked for deletion
-      reviewCommentToBeDeletedById.put(comment.getId(), comment);
-      existingReviewCommentsByLocationByFile.get(comment.getPath()).put(comment.getPosition(), comment);
     }
+    return true;
+  }
+
+  /**
+   * @return the paths of the files changed between the provided commit and the head of the pull request, or null if the head
+   * is not a descendant of this commit (for example after a force push) or if too many files changed
+   */
+  @CheckForNull
+  private Set<String> filesChangedSince(String previousHeadSha) throws IOException {
+    ComparedFiles compared = restClient.get(repositoryPath + "/compare/" + previousHeadSha + "..." + pr.getHead().getSha(), PullRequestFacade::readComparedFiles);
+    if (!"ahead".equals(compared.status) || compared.paths.size() >= MAX_COMPARED_FILES) {
+      return null;
+    }
+    return compared.paths;
+  }
+
+  private static class ComparedFiles {
+    private String status;
+    private final Set<String> paths = new HashSet<>();
+  }
+
+  private static ComparedFiles readComparedFiles(JsonParser parser) throws IOException {
+    ComparedFiles compared = new ComparedFiles();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      if ("status".equals(field)) {
+        parser.nextToken();
+        compared.status = parser.getText();
+      } else if ("files".equals(field) && parser.nextToken() == JsonToken.START_ARRAY) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fileField = parser.getCurrentName();
+            if ("filename".equals(fileField) || "previous_filename".equals(fileField)) {
+              parser.nextToken();
+              compared.paths.add(parser.getText());
+            } else {
+              GitHubRestClient.skipValue(parser);
+            }
+          }
+        }
+      } else if (!"files".equals(field)) {
+        GitHubRestClient.skipValue(parser);
+      }
+    }
+    return compared;
+  }
+
+  @CheckForNull
+  private PublishedComment reloadReviewComment(long id) throws IOException {
+    try {
+      String locationField = locationField();
+      return restClient.get(repositoryPath + "/pulls/comments/" + id, parser -> readAuthoredComment(parser, locationField).toPublishedComment());
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  private static class AuthoredComment {
+    private long id;
+    private String login;
+    private long bodyHash;
+    // Review comments only
+    private String path;
+    private int location = OUTDATED_POSITION;
+
+    private PublishedComment toPublishedComment() {
+      return new PublishedComment(id, path, location, bodyHash);
+    }
+  }
+
+  /**
+   * Reads a global comment or a review comment.
+   * @param locationField field giving the location of review comments in their file
+   */
+  private static AuthoredComment readAuthoredComment(JsonParser parser, String locationField) throws IOException {
+    AuthoredComment comment = new AuthoredComment();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if ("id".equals(field)) {
+        comment.id = parser.getLongValue();
+      } else if ("body".equals(field)) {
+        comment.bodyHash = PublishedComment.hash(parser.getText());
+      } else if ("path".equals(field)) {
+        comment.path = parser.getText();
+      } else if (locationField.equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+        comment.location = parser.getIntValue();
+      } else if ("user".equals(field) && value == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          if ("login".equals(parser.getCurrentName())) {
+            parser.nextToken();
+            comment.login = parser.getText();
+          } else {
+            GitHubRestClient.skipValue(parser);
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return comment;
   }
 
   /**
    * GitHub expect review comments to be added on "patch lines" (aka position) but not on file lines.
    * So we have to iterate over each patch and compute corresponding file line in order to later map issues to the correct position.
-   * @return Map File path -> Line -> Position
-   */
-  private Map<String, Map<Integer, Integer>> mapPatchPositionsToLines(GHPullRequest pr) throws IOException {
-    Map<String, Map<Integer, Integer>> result = new HashMap<>();
-    for (GHPullRequestFileDetail file : pr.listFiles()) {
-      Map<Integer, Integer> patchLocationMapping = new HashMap<>();
-      result.put(file.getFilename(), patchLocationMapping);
-      if (config.tryReportIssuesInline()) {
-        String patch = file.getPatch();
-        if (patch == null) {
-          continue;
-        }
-        processPatch(patchLocationMapping, patch);
+   * When review comments are published by line, only the line ranges covered by the hunks of each patch are kept.
+   * Files are streamed with the biggest page size, and each patch is dropped as soon as it is processed, so that
+   * memory does not depend on the size of the whole diff. Pages are loaded concurrently.
+   * In incremental mode, the files not changed since the previous analysis have the same diff with the base: their locations are
+   * taken from the cache of the previous analysis, if any, and only the patches of the changed files are processed. GitHub can't
+   * filter the files of a pull request, so they are still all listed.
+   * @return Files of the pull request by path
+   */
+  private Map<String, CommentableFile> loadCommentableFiles(GHPullRequest pr) throws IOException {
+    boolean processPatches = config.tryReportIssuesInline();
+    boolean byLine = config.isReviewCommentByLine();
+    String variant = locationField() + (processPatches ? "" : "-without-patch");
+    if (positionCache != null) {
+      Map<String, CommentableFile> cached = positionCache.read(ghRepo.getFullName(), pr.getBase().getSha(), pr.getHead().getSha(), variant);
+      if (cached != null) {
+        LOG.debug("Using cached files of the diff between {} and {}", pr.getBase().getSha(), pr.getHead().getSha());
+        return cached;
       }
     }
+    Map<String, CommentableFile> previous = positionCache != null && previousHeadSha != null
+      ? positionCache.read(ghRepo.getFullName(), pr.getBase().getSha(), previousHeadSha, variant)
+      : null;
+    Predicate<String> isReusable = path -> previous != null && path != null && previous.containsKey(path) && !filesChangedSincePreviousHead.contains(path);
+    Predicate<String> processPatch = path -> processPatches && !isReusable.test(path);
+    Map<String, CommentableFile> result = new HashMap<>();
+    restClient.<CommentableFile>forEachItem(repositoryPath + "/pulls/" + pr.getNumber() + "/files?per_page=" + MAX_PAGE_SIZE,
+      parser -> byLine ? readChangedLineRanges(parser, processPatch) : readFilePositions(parser, processPatch),
+      file -> result.put(file.path(), isReusable.test(file.path()) ? previous.get(file.path()) : file));
+    if (positionCache != null) {
+      positionCache.write(ghRepo.getFullName(), pr.getBase().getSha(), pr.getHead().getSha(), variant, result);
+    }
     return result;
   }
 
+  static class FilePositions implements CommentableFile {
+    private String path;
+    private final Map<Integer, Integer> patchLocationMapping;
+
+    FilePositions() {
+      this.patchLocationMapping = new HashMap<>();
+    }
+
+    FilePositions(String path, Map<Integer, Integer> patchLocationMapping) {
+      this.path = path;
+      this.patchLocationMapping = patchLocationMapping;
+    }
+
+    @Override
+    public String path() {
+      return path;
+    }
+
+    Map<Integer, Integer> patchLocationMapping() {
+      return patchLocationMapping;
+    }
+
+    @CheckForNull
+    @Override
+    public Integer location(int line) {
+      return patchLocationMapping.get(line);
+    }
+  }
+
+  static FilePositions readFilePositions(JsonParser parser, boolean processPatch) throws IOException {
+    return readFilePositions(parser, path -> processPatch);
+  }
+
+  /**
+   * @param processPatch tells if the patch of a file is processed, given its path. The path is null when GitHub sends it after the patch.
+   */
+  static FilePositions readFilePositions(JsonParser parser, Predicate<String> processPatch) throws IOException {
+    FilePositions file = new FilePositions();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if ("filename".equals(field)) {
+        file.path = parser.getText();
+      } else if ("patch".equals(field) && value == JsonToken.VALUE_STRING && processPatch.test(file.path)) {
+        processPatch(file.patchLocationMapping, parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return file;
+  }
+
+  static ChangedLineRanges readChangedLineRanges(JsonParser parser, boolean processPatch) throws IOException {
+    return readChangedLineRanges(parser, path -> processPatch);
+  }
+
+  static ChangedLineRanges readChangedLineRanges(JsonParser parser, Predicate<String> processPatch) throws IOException {
+    String path = null;
+    String patch = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if ("filename".equals(field)) {
+        path = parser.getText();
+      } else if ("patch".equals(field) && value == JsonToken.VALUE_STRING && processPatch.test(path)) {
+        patch = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return ChangedLineRanges.parse(path, patch != null ? patch : "");
+  }
+
   static void processPatch(Map<Integer, Integer> patchLocationMapping, String patch) throws IOException {
     int currentLine = -1;
     int patchLocation = 0;
@@ -179,7 +708,7 @@ public class PullRequestFacade {
     while ((line = reader.readLine()) != null) {
       if (line.startsWith("@")) {
         // http://en.wikipedia.org/wiki/Diff_utility#Unified_format
-        Matcher matcher = Pattern.compile("@@\\p{IsWhite_Space}-[0-9]+(?:,[0-9]+)?\\p{IsWhite_Space}\\+([0-9]+)(?:,[0-9]+)?\\p{IsWhite_Space}@@.*").matcher(line);
+        Matcher matcher = HUNK_HEADER.matcher(line);
         if (!matcher.matches()) {
           throw new IllegalStateException("Unable to parse patch line " + line + "\nFull patch: \n" + patch);
         }
@@ -202,125 +731,509 @@ public class PullRequestFacade {
     return new PathResolver().relativePath(gitBaseDir, inputPath.file());
   }
 
+  /**
+   * @return true if GitHub is unhealthy, in which case review comments should not be published
+   */
+  public boolean isGitHubDegraded() {
+    return circuitBreaker.isOpen();
+  }
+
   /**
    * Test if the P/R contains the provided file path (ie this file was added/modified/updated)
    */
   public boolean hasFile(InputFile inputFile) {
-    return patchPositionMappingByFile.containsKey(getPath(inputFile));
+    return commentableFiles.containsKey(getPath(inputFile));
   }
 
   /**
    * Test if the P/R contains the provided line for the file path (ie this line is "visible" in diff)
    */
   public boolean hasFileLine(InputFile inputFile, int line) {
-    return patchPositionMappingByFile.get(getPath(inputFile)).containsKey(line);
+    return commentableFiles.get(getPath(inputFile)).location(line) != null;
+  }
+
+  /**
+   * Same as {@link #hasFileLine(InputFile, int)} for a path relative to the root of the repository, false if the file
+   * is not part of the pull request.
+   */
+  boolean hasFileLine(String path, int line) {
+    CommentableFile file = commentableFiles.get(path);
+    return file != null && file.location(line) != null;
+  }
+
+  /**
+   * @return number of requests left in the rate limit of GitHub, null if unknown
+   */
+  @CheckForNull
+  Integer rateLimitRemaining() {
+    return restClient != null ? restClient.rateLimitRemaining() : null;
+  }
+
+  /**
+   * @return the commit at the head of the pull request
+   */
+  String headSha() {
+    return pr.getHead().getSha();
+  }
+
+  /**
+   * Test if a review comment with the provided body was already published on this line, in which case
+   * {@link #createOrUpdateReviewComment(InputFile, Integer, String)} does not need any write operation.
+   */
+  public boolean hasUpToDateReviewComment(InputFile inputFile, int line, String body) {
+    return hasUpToDateReviewComment(getPath(inputFile), line, body);
+  }
+
+  boolean hasUpToDateReviewComment(String fullpath, int line, String body) {
+    PublishedComment existingReview = findExistingReviewComment(fullpath, commentableFiles.get(fullpath).location(line));
+    return existingReview != null && existingReview.hasBody(body);
   }
 
   public void createOrUpdateReviewComment(InputFile inputFile, Integer line, String body) {
-    String fullpath = getPath(inputFile);
-    Integer lineInPatch = patchPositionMappingByFile.get(fullpath).get(line);
+    createOrUpdateReviewComment(getPath(inputFile), line, body);
+  }
+
+  /**
+   * Same as {@link #createOrUpdateReviewComment(InputFile, Integer, String)} for a path relative to the root
+   * of the repository.
+   */
+  void createOrUpdateReviewComment(String fullpath, Integer line, String body) {
+    Integer lineInPatch = commentableFiles.get(fullpath).location(line);
     try {
-      if (existingReviewCommentsByLocationByFile.containsKey(fullpath) && existingReviewCommentsByLocationByFile.get(fullpath).containsKey(lineInPatch)) {
-        GHPullRequestReviewComment existingReview = existingReviewCommentsByLocationByFile.get(fullpath).get(lineInPatch);
-        if (!existingReview.getBody().equals(body)) {
-          existingReview.update(body);
+      long bodyHash = PublishedComment.hash(body);
+      PublishedComment existingReview = findExistingReviewComment(fullpath, lineInPatch);
+      if (existingReview != null) {
+        unregisterExistingReviewComment(existingReview);
+        if (existingReview.bodyHash() == bodyHash || updateReviewComment(existingReview.id(), body)) {
+          publishedReviewComments.add(new PublishedComment(existingReview.id(), fullpath, lineInPatch, bodyHash));
+          return;
         }
-        reviewCommentToBeDeletedById.remove(existingReview.getId());
-      } else {
-        pr.createReviewComment(body, pr.getHead().getSha(), fullpath, lineInPatch);
       }
+      publishedReviewComments.add(createReviewComment(fullpath, lineInPatch, body, bodyHash));
     } catch (IOException e) {
       throw new IllegalStateException("Unable to create or update review comment in file " + fullpath + " at line " + line, e);
     }
 
   }
 
-  public void deleteOutdatedComments() {
-    for (GHPullRequestReviewComment reviewToDelete : reviewCommentToBeDeletedById.values()) {
-      try {
-        reviewToDelete.delete();
-      } catch (IOException e) {
-        throw new IllegalStateException("Unable to delete review comment with id " + reviewToDelete.getId(), e);
+  private PublishedComment createReviewComment(String path, int location, String body, long bodyHash) throws IOException {
+    String since = since(System.currentTimeMillis());
+    String locationField = locationField();
+    GitHubRestClient.ItemReader<PublishedComment> reader = parser -> readAuthoredComment(parser, locationField).toPublishedComment();
+    GitHubRestClient.ReplayCheck<PublishedComment> replayCheck = () -> findCreatedSince("/pulls/" + pr.getNumber() + "/comments", since, reader,
+      c -> location == c.position() && path.equals(c.path()) && c.bodyHash() == bodyHash);
+    String commentsPath = repositoryPath + "/pulls/" + pr.getNumber() + "/comments";
+    if (config.isReviewCommentByLine()) {
+      return restClient.create(commentsPath, reader, replayCheck, "body", body, "commit_id", pr.getHead().getSha(), "path", path, "line", location, "side", "RIGHT");
+    }
+    return restClient.create(commentsPath, reader, replayCheck, "body", body, "commit_id", pr.getHead().getSha(), "path", path, "position", location);
+  }
+
+  /**
+   * Look for a comment created by a previous attempt of a creation. The body is enough to identify it, since it is
+   * unlikely that somebody else posted the very same comment in the meantime.
+   */
+  @CheckForNull
+  private <T> T findCreatedSince(String listPath, String since, GitHubRestClient.ItemReader<T> reader, Predicate<T> isCreated) throws IOException {
+    String pageUrl = repositoryPath + listPath + "?per_page=" + MAX_PAGE_SIZE + "&since=" + since;
+    while (pageUrl != null) {
+      GitHubRestClient.Page<T> page = restClient.getPage(pageUrl, reader);
+      for (T comment : page.items()) {
+        if (isCreated.test(comment)) {
+          return comment;
+        }
       }
+      pageUrl = page.nextUrl();
     }
+    return null;
   }
 
-  public void createOrUpdateGlobalComments(@Nullable String markup) {
+  /**
+   * @return false if the comment does not exist anymore
+   */
+  private boolean updateReviewComment(long id, String body) throws IOException {
     try {
-      boolean found = findAndDeleteOthers(markup);
+      restClient.post(repositoryPath + "/pulls/comments/" + id, "body", body);
+      return true;
+    } catch (FileNotFoundException e) {
+      LOG.debug("Review comment {} was deleted in the meantime", id);
+      return false;
+    }
+  }
+
+  /**
+   * Failed calls are not attempted again, and writes don't wait for the shared rate limit, after the deadline of the write budget,
+   * so that the publication ends in time.
+   */
+  void setWriteDeadline(long writeDeadline) {
+    if (restClient != null) {
+      restClient.setWriteDeadline(writeDeadline);
+    }
+  }
+
+  /**
+   * Delete outdated comments as long as the write budget allows it and GitHub is healthy. Those left on the pull request are recorded in the
+   * publication journal, so that the next analysis deletes them.
+   */
+  void deleteOutdatedComments(WriteBudget writeBudget) {
+    List<PublishedComment> reviewsToDelete = new ArrayList<>(duplicatedReviewComments);
+    for (Map<Integer, PublishedComment> outdatedReviews : existingReviewCommentsByLocationByFile.values()) {
+      reviewsToDelete.addAll(outdatedReviews.values());
+    }
+    int deleted = 0;
+    while (deleted < reviewsToDelete.size() && !isGitHubDegraded() && writeBudget.tryConsume(1)) {
+      deleteReviewComment(reviewsToDelete.get(deleted));
+      deleted++;
+    }
+    if (deleted < reviewsToDelete.size()) {
+      List<PublishedComment> keptReviews = reviewsToDelete.subList(deleted, reviewsToDelete.size());
+      LOG.warn("{} outdated review comments will not be deleted by this analysis", keptReviews.size());
+      publishedReviewComments.addAll(keptReviews);
+    }
+  }
+
+  private void deleteReviewComment(PublishedComment reviewToDelete) {
+    try {
+      deleteIfExists(repositoryPath + "/pulls/comments/" + reviewToDelete.id());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to delete review comment with id " + reviewToDelete.id(), e);
+    }
+  }
+
+  private void deleteIfExists(String commentPath) throws IOException {
+    try {
+      restClient.delete(commentPath);
+    } catch (FileNotFoundException e) {
+      // Already deleted, nothing to do
+    }
+  }
+
+  /**
+   * The global comment is always published. Other global comments of previous analyses are listed and deleted until the deadline of
+   * the write budget, and as long as GitHub is healthy: those left on the pull request are recorded in the publication journal, so that
+   * the next analysis deletes them.
+   */
+  public void createOrUpdateGlobalComments(@Nullable String markup, WriteBudget writeBudget) {
+    try {
+      boolean found = journaledGlobalComments != null ? deleteJournaledOthers(markup, writeBudget) : findAndDeleteOthers(markup, writeBudget);
       if (markup != null && !found) {
-        pr.comment(markup);
+        publishedGlobalComments.add(createGlobalComment(markup));
       }
     } catch (IOException e) {
       throw new IllegalStateException("Unable to read the pull request comments", e);
     }
   }
 
-  private boolean findAndDeleteOthers(@Nullable String markup) throws IOException {
+  private PublishedComment createGlobalComment(String markup) throws IOException {
+    String since = since(System.currentTimeMillis());
+    long bodyHash = PublishedComment.hash(markup);
+    GitHubRestClient.ItemReader<AuthoredComment> reader = parser -> readAuthoredComment(parser, locationField());
+    AuthoredComment created = restClient.create(repositoryPath + "/issues/" + pr.getNumber() + "/comments", reader,
+      () -> findCreatedSince("/issues/" + pr.getNumber() + "/comments", since, reader,
+        c -> myself.equals(c.login) && c.bodyHash == bodyHash),
+      "body", markup);
+    return new PublishedComment(created.id, null, 0, bodyHash);
+  }
+
+  private boolean findAndDeleteOthers(@Nullable String markup, WriteBudget writeBudget) throws IOException {
     boolean found = false;
-    for (GHIssueComment comment : pr.listComments()) {
-      if (myself.equals(comment.getUser().getLogin())) {
-        if (markup == null || found || !markup.equals(comment.getBody())) {
-          comment.delete();
+    long markupHash = markup != null ? PublishedComment.hash(markup) : 0L;
+    String locationField = locationField();
+    String pageUrl = repositoryPath + "/issues/" + pr.getNumber() + "/comments?per_page=" + MAX_PAGE_SIZE;
+    while (pageUrl != null) {
+      GitHubRestClient.Page<AuthoredComment> page = restClient.getPage(pageUrl, parser -> readAuthoredComment(parser, locationField));
+      for (AuthoredComment comment : page.items()) {
+        if (!myself.equals(comment.login)) {
           continue;
         }
-        if (markup.equals(comment.getBody())) {
+        if (markup == null || found || comment.bodyHash != markupHash) {
+          deleteGlobalComment(new PublishedComment(comment.id, null, 0, comment.bodyHash), writeBudget);
+        } else {
           found = true;
+          publishedGlobalComments.add(new PublishedComment(comment.id, null, 0, markupHash));
         }
       }
+      pageUrl = page.nextUrl();
+      if (pageUrl != null && writeBudget.isExpired()) {
+        LOG.warn("Publication timeout almost reached, previous global comments will not all be deleted by this analysis");
+        globalCommentsPartiallyListed = true;
+        pageUrl = null;
+      }
     }
     return found;
   }
 
-  public void createOrUpdateSonarQubeStatus(GHCommitState status, String statusDescription) {
+  private boolean deleteJournaledOthers(@Nullable String markup, WriteBudget writeBudget) throws IOException {
+    boolean found = false;
+    for (PublishedComment comment : journaledGlobalComments) {
+      if (!found && markup != null && comment.hasBody(markup)) {
+        found = true;
+        publishedGlobalComments.add(comment);
+      } else {
+        deleteGlobalComment(comment, writeBudget);
+      }
+    }
+    return found;
+  }
+
+  private void deleteGlobalComment(PublishedComment comment, WriteBudget writeBudget) throws IOException {
+    if (writeBudget.isExpired() || isGitHubDegraded()) {
+      // Deleted by the next analysis
+      publishedGlobalComments.add(comment);
+    } else {
+      deleteIfExists(repositoryPath + "/issues/comments/" + comment.id());
+    }
+  }
+
+  /**
+   * Record the comments published by this analysis, for the next analysis of the same commit.
+   */
+  public void writePublicationJournal() {
+    // Comments of the previous analysis were not loaded by a minimal publication, the journal would lose track of them
+    if (journal != null && !minimalPublication && !globalCommentsPartiallyListed) {
+      journal.write(ghRepo.getFullName(), pr.getNumber(),
+        new PublicationJournal.Entry(pr.getHead().getSha(), pr.getBase().getSha(), System.currentTimeMillis(), locationField(), publishedReviewComments,
+          publishedGlobalComments));
+    }
+  }
+
+  /**
+   * Upload a SARIF file to the code scanning API, as an analysis of the head of the pull request. The file is sent
+   * gzipped in a single request, whatever the number of issues.
+   */
+  public void uploadCodeScanningAnalysis(File sarif) {
+    if (isGitHubDegraded()) {
+      LOG.warn("GitHub is unhealthy, issues are not uploaded to code scanning");
+      return;
+    }
     try {
-      // Copy previous targetUrl in case it was set by an external system (like the CI job).
-      String targetUrl = null;
-      GHCommitStatus lastStatus = getCommitStatusForContext(pr, COMMIT_CONTEXT);
-      if (lastStatus != null) {
-        targetUrl = lastStatus.getTargetUrl();
+      restClient.postJson(repositoryPath + "/code-scanning/sarifs", codeScanningRequest(sarif, pr.getHead().getSha(), "refs/pull/" + pr.getNumber() + "/head"));
+      LOG.info("Issues uploaded to GitHub code scanning");
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to upload " + sarif + " to GitHub code scanning", e);
+    }
+  }
+
+  static byte[] codeScanningRequest(File sarif, String commitSha, String ref) throws IOException {
+    return codeScanningRequest(sarif, commitSha, ref, MAX_GZIPPED_SARIF_SIZE);
+  }
+
+  /**
+   * The request is built in memory, since it is sent again when retried. Neither the commit SHA, the ref of a pull
+   * request nor the base64 encoding of the gzipped file need to be escaped in JSON, so that the file is encoded into the
+   * request as it is compressed, and fails as soon as it gets bigger than GitHub accepts.
+   */
+  static byte[] codeScanningRequest(File sarif, String commitSha, String ref, int maxGzippedSize) throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    json.write(("{\"commit_sha\":\"" + commitSha + "\",\"ref\":\"" + ref + "\",\"sarif\":\"").getBytes(StandardCharsets.UTF_8));
+    try (OutputStream gzip = new GZIPOutputStream(new BoundedOutputStream(Base64.getEncoder().wrap(json), maxGzippedSize))) {
+      Files.copy(sarif.toPath(), gzip);
+    }
+    json.write("\"}".getBytes(StandardCharsets.UTF_8));
+    return json.toByteArray();
+  }
+
+  private static class BoundedOutputStream extends FilterOutputStream {
+    private final int maxSize;
+    private int size = 0;
+
+    private BoundedOutputStream(OutputStream out, int maxSize) {
+      super(out);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      grow(1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      grow(len);
+      out.write(b, off, len);
+    }
+
+    private void grow(int len) throws IOException {
+      size += len;
+      if (size > maxSize) {
+        throw new IOException("Gzipped SARIF file is bigger than the " + maxSize + " bytes accepted by GitHub code scanning");
       }
-      ghRepo.createCommitStatus(pr.getHead().getSha(), status, targetUrl, statusDescription, COMMIT_CONTEXT);
+    }
+  }
+
+  /**
+   * Nothing is written if the latest status already has the same state and description, for example when the same
+   * commit is analyzed again. The latest status is only loaded once, and then kept up to date, so that the pending
+   * status set at the beginning of the analysis and the final one cost a single lookup.
+   */
+  public void createOrUpdateSonarQubeStatus(GHCommitState status, String statusDescription) {
+    try {
+      CommitStatus updatedStatus = createOrUpdateSonarQubeStatus(pr.getHead().getSha(), lastSonarQubeStatus(), status, statusDescription);
+      lastStatusLoaded = true;
+      this.lastStatus = updatedStatus;
     } catch (FileNotFoundException e) {
-      String msg = "Unable to set pull request status. GitHub account probably miss push permission on the repository.";
-      if (LOG.isDebugEnabled()) {
-        LOG.warn(msg, e);
-      } else {
-        LOG.warn(msg);
+      warnStatusNotSet(e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to update commit status", e);
+    }
+  }
+
+  /**
+   * Sets the pending status at the beginning of the analysis, unless a previous analysis of the same commit already
+   * set a success or failure status: the analysis is then run again on unchanged code, and its final status, that
+   * is only written if it differs, will most likely be the same.
+   */
+  public void createPendingSonarQubeStatus(String statusDescription) {
+    try {
+      CommitStatus status = lastSonarQubeStatus();
+      if (status != null && (status.state() == GHCommitState.SUCCESS || status.state() == GHCommitState.FAILURE)) {
+        LOG.debug("Commit was already analyzed, pending status is not set");
+        return;
       }
+    } catch (FileNotFoundException e) {
+      warnStatusNotSet(e);
+      return;
     } catch (IOException e) {
       throw new IllegalStateException("Unable to update commit status", e);
     }
+    createOrUpdateSonarQubeStatus(GHCommitState.PENDING, statusDescription);
+  }
+
+  /**
+   * Same as {@link #createOrUpdateSonarQubeStatus(GHCommitState, String)} for the given commit, that may no longer be
+   * the head of the pull request, like the commit of an outdated publication plan.
+   */
+  public void createOrUpdateSonarQubeStatus(String commitSha, GHCommitState status, String statusDescription) {
+    if (commitSha.equals(pr.getHead().getSha())) {
+      createOrUpdateSonarQubeStatus(status, statusDescription);
+      return;
+    }
+    try {
+      createOrUpdateSonarQubeStatus(commitSha, loadSonarQubeStatus(commitSha), status, statusDescription);
+    } catch (FileNotFoundException e) {
+      warnStatusNotSet(e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to update status of commit " + commitSha, e);
+    }
+  }
+
+  /**
+   * @return the latest status of the commit
+   */
+  private CommitStatus createOrUpdateSonarQubeStatus(String commitSha, @Nullable CommitStatus lastStatus, GHCommitState status, String statusDescription)
+    throws IOException {
+    if (lastStatus != null && lastStatus.isSame(status, statusDescription)) {
+      LOG.debug("Commit status is already up to date");
+      return lastStatus;
+    }
+    // Copy previous targetUrl in case it was set by an external system (like the CI job).
+    String targetUrl = lastStatus != null ? lastStatus.targetUrl() : null;
+    // Creating the same status twice is harmless, so that it can always be sent again
+    restClient.post(repositoryPath + "/statuses/" + commitSha, "state", status.name().toLowerCase(Locale.ENGLISH),
+      "target_url", targetUrl, "description", statusDescription, "context", COMMIT_CONTEXT);
+    return new CommitStatus(status, statusDescription, targetUrl);
+  }
+
+  private static void warnStatusNotSet(FileNotFoundException e) {
+    String msg = "Unable to set pull request status. GitHub account probably miss push permission on the repository.";
+    if (LOG.isDebugEnabled()) {
+      LOG.warn(msg, e);
+    } else {
+      LOG.warn(msg);
+    }
+  }
+
+  @CheckForNull
+  CommitStatus lastSonarQubeStatus() throws IOException {
+    if (!lastStatusLoaded) {
+      lastStatus = loadSonarQubeStatus(pr.getHead().getSha());
+      lastStatusLoaded = true;
+    }
+    return lastStatus;
+  }
+
+  /**
+   * The combined status of the commit gives the latest status of each context in a single call, whatever the
+   * number of statuses previously created.
+   */
+  @CheckForNull
+  private CommitStatus loadSonarQubeStatus(String commitSha) throws IOException {
+    return restClient.get(repositoryPath + "/commits/" + commitSha + "/status?per_page=" + MAX_PAGE_SIZE,
+      parser -> readCommitStatus(parser, COMMIT_CONTEXT));
+  }
+
+  /**
+   * Reads a combined status, the parser being positioned on its START_OBJECT token.
+   * @return the status of the given context, if any
+   */
+  @CheckForNull
+  static CommitStatus readCommitStatus(JsonParser parser, String context) throws IOException {
+    CommitStatus result = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      if (parser.nextToken() == JsonToken.START_ARRAY && "statuses".equals(field)) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          String state = null;
+          String statusContext = null;
+          String description = null;
+          String targetUrl = null;
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String statusField = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_STRING && "state".equals(statusField)) {
+              state = parser.getText();
+            } else if (value == JsonToken.VALUE_STRING && "context".equals(statusField)) {
+              statusContext = parser.getText();
+            } else if (value == JsonToken.VALUE_STRING && "description".equals(statusField)) {
+              description = parser.getText();
+            } else if (value == JsonToken.VALUE_STRING && "target_url".equals(statusField)) {
+              targetUrl = parser.getText();
+            } else {
+              parser.skipChildren();
+            }
+          }
+          if (context.equals(statusContext) && state != null) {
+            result = new CommitStatus(GHCommitState.valueOf(state.toUpperCase(Locale.ENGLISH)), description, targetUrl);
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return result;
   }
 
   @CheckForNull
   public URL getGithubUrl(@Nullable InputComponent inputComponent, @Nullable Integer issueLine) {
     if (inputComponent instanceof InputPath) {
-      String path = getPath((InputPath) inputComponent);
-      URL url1 = ghRepo.getHtmlUrl();
-      try {
-        return new URI(url1.getProtocol(), null, url1.getHost(), url1.getPort(),
-          url1.getFile() + "/blob/" + pr.getHead().getSha() + "/" + path, null, issueLine != null ? ("L" + issueLine) : "").toURL();
-      } catch (MalformedURLException | URISyntaxException e) {
-        LOG.error("Invalid URL", e);
-      }
+      return getGithubUrl(getPath((InputPath) inputComponent), issueLine);
     }
     return null;
   }
 
+  /**
+   * @param path path of a file relative to the root of the repository
+   */
   @CheckForNull
-  GHCommitStatus getCommitStatusForContext(GHPullRequest pr, String context) {
-    List<GHCommitStatus> statuses;
+  URL getGithubUrl(String path, @Nullable Integer issueLine) {
     try {
-      statuses = pr.getRepository().listCommitStatuses(pr.getHead().getSha()).asList();
-    } catch (IOException e) {
-      throw new IllegalStateException("Unable to retrieve commit statuses.", e);
-    }
-    for (GHCommitStatus status : statuses) {
-      if (context.equals(status.getContext())) {
-        return status;
-      }
+      String prefix = blobUrlPrefix();
+      // only quote the path and the fragment, the prefix is already encoded
+      String encoded = new URI(null, null, "/" + path, null, issueLine != null ? ("L" + issueLine) : "").toString();
+      return new URL(prefix + encoded.substring(1));
+    } catch (MalformedURLException | URISyntaxException e) {
+      LOG.error("Invalid URL", e);
     }
     return null;
   }
+
+  private String blobUrlPrefix() throws URISyntaxException {
+    if (blobUrlPrefix == null) {
+      URL htmlUrl = ghRepo.getHtmlUrl();
+      blobUrlPrefix = new URI(htmlUrl.getProtocol(), null, htmlUrl.getHost(), htmlUrl.getPort(),
+        htmlUrl.getFile() + "/blob/" + pr.getHead().getSha() + "/", null, null).toString();
+    }
+    return blobUrlPrefix;
+  }
 }
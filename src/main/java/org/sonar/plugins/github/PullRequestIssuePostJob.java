@@ -19,10 +19,19 @@
  */
 package org.sonar.plugins.github;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.github.GHCommitState;
 import org.sonar.api.batch.fs.InputComponent;
@@ -31,6 +40,8 @@ import org.sonar.api.batch.postjob.PostJob;
 import org.sonar.api.batch.postjob.PostJobContext;
 import org.sonar.api.batch.postjob.PostJobDescriptor;
 import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.utils.System2;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
@@ -41,15 +52,18 @@ public class PullRequestIssuePostJob implements PostJob {
   private static final Logger LOG = Loggers.get(PullRequestFacade.class);
 
   private static final Comparator<PostJobIssue> ISSUE_COMPARATOR = new IssueComparator();
+  private static final Comparator<InlineComment> INLINE_COMMENT_COMPARATOR = (left, right) -> ISSUE_COMPARATOR.compare(left.mostSevereIssue(), right.mostSevereIssue());
 
   private final PullRequestFacade pullRequestFacade;
   private final GitHubPluginConfiguration gitHubPluginConfiguration;
   private final MarkDownUtils markDownUtils;
+  private final System2 system2;
 
-  public PullRequestIssuePostJob(GitHubPluginConfiguration gitHubPluginConfiguration, PullRequestFacade pullRequestFacade, MarkDownUtils markDownUtils) {
+  public PullRequestIssuePostJob(GitHubPluginConfiguration gitHubPluginConfiguration, PullRequestFacade pullRequestFacade, MarkDownUtils markDownUtils, System2 system2) {
     this.gitHubPluginConfiguration = gitHubPluginConfiguration;
     this.pullRequestFacade = pullRequestFacade;
     this.markDownUtils = markDownUtils;
+    this.system2 = system2;
   }
 
   @Override
@@ -61,78 +75,351 @@ public class PullRequestIssuePostJob implements PostJob {
 
   @Override
   public void execute(PostJobContext context) {
-    GlobalReport report = new GlobalReport(markDownUtils, gitHubPluginConfiguration.tryReportIssuesInline());
+    Tracer tracer = pullRequestFacade.tracer();
     try {
-      Map<InputFile, Map<Integer, StringBuilder>> commentsToBeAddedByLine = processIssues(report, context.issues());
+      // Fails the analysis if the pull request could not be loaded, like when it is loaded before the analysis
+      pullRequestFacade.awaitInit();
+      publish(context, tracer);
+    } finally {
+      tracer.write();
+    }
+  }
 
-      updateReviewComments(commentsToBeAddedByLine);
+  private void publish(PostJobContext context, Tracer tracer) {
+    GlobalReport report = new GlobalReport(markDownUtils, gitHubPluginConfiguration.tryReportIssuesInline(), GitHubPluginConfiguration.MAX_GLOBAL_ISSUES,
+      gitHubPluginConfiguration.isExtraIssuesSummaryEnabled());
+    List<IssueSink> sinks = createSinks();
+    try {
+      PublicationPlan plan = gitHubPluginConfiguration.isPublicationPlanEnabled()
+        ? new PublicationPlan(gitHubPluginConfiguration.publicationSettings(), pullRequestFacade.headSha())
+        : null;
+      WriteBudget writeBudget = WriteBudget.forPublication(gitHubPluginConfiguration, system2);
+      pullRequestFacade.setWriteDeadline(writeBudget.deadline());
+      boolean inlineReport;
+      try (Tracer.Span span = tracer.start("publish", "processIssues")) {
+        inlineReport = processIssues(report, context.issues(), writeBudget, tracer, sinks, plan);
+      }
 
-      pullRequestFacade.deleteOutdatedComments();
+      if (plan == null) {
+        try (Tracer.Span span = tracer.start("publish", "deleteOutdatedComments")) {
+          pullRequestFacade.deleteOutdatedComments(inlineReport ? writeBudget : summaryOnlyDeletions(writeBudget));
+        }
+      }
+
+      String markup = null;
+      if (report.hasNewIssue()) {
+        try (Tracer.Span span = tracer.start("publish", "formatForMarkdown")) {
+          markup = report.formatForMarkdown();
+        }
+      }
+      if (plan != null) {
+        writePlan(plan, markup, report);
+        return;
+      }
+      try (Tracer.Span span = tracer.start("publish", "createOrUpdateGlobalComments")) {
+        pullRequestFacade.createOrUpdateGlobalComments(markup, writeBudget);
+      }
 
-      pullRequestFacade.createOrUpdateGlobalComments(report.hasNewIssue() ? report.formatForMarkdown() : null);
+      pullRequestFacade.writePublicationJournal();
 
-      pullRequestFacade.createOrUpdateSonarQubeStatus(report.getStatus(), report.getStatusDescription());
+      try (Tracer.Span span = tracer.start("publish", "createOrUpdateSonarQubeStatus")) {
+        pullRequestFacade.createOrUpdateSonarQubeStatus(report.getStatus(), report.getStatusDescription());
+      }
     } catch (Exception e) {
       LOG.error("SonarQube analysis failed to complete the review of this pull request", e);
       pullRequestFacade.createOrUpdateSonarQubeStatus(GHCommitState.ERROR, StringUtils.abbreviate("SonarQube analysis failed: " + e.getMessage(), 140));
+    } finally {
+      finish(sinks, tracer);
+    }
+  }
+
+  private void writePlan(PublicationPlan plan, @Nullable String markup, GlobalReport report) throws IOException {
+    plan.setGlobalComment(markup);
+    plan.setStatus(report.getStatus(), report.getStatusDescription());
+    File file = new File(pullRequestFacade.workDir(), PublicationPlan.FILE_NAME);
+    plan.write(file);
+    LOG.info("Publication plan written to {}", file);
+  }
+
+  private static void finish(List<IssueSink> sinks, Tracer tracer) {
+    for (IssueSink sink : sinks) {
+      try (Tracer.Span span = tracer.start("publish", "finish")) {
+        if (tracer.isEnabled()) {
+          span.arg("sink", sink.getClass().getSimpleName());
+        }
+        sink.finish();
+      } catch (RuntimeException e) {
+        LOG.warn("Unable to export issues with " + sink.getClass().getSimpleName(), e);
+      }
     }
   }
 
-  private Map<InputFile, Map<Integer, StringBuilder>> processIssues(GlobalReport report, Iterable<PostJobIssue> issues) {
-    Map<InputFile, Map<Integer, StringBuilder>> commentToBeAddedByFileAndByLine = new HashMap<>();
+  private static void abort(IssueSink sink) {
+    try {
+      sink.abort();
+    } catch (RuntimeException e) {
+      LOG.warn("Unable to abort export of issues with " + sink.getClass().getSimpleName(), e);
+    }
+  }
 
-    StreamSupport.stream(issues.spliterator(), false)
-      .filter(PostJobIssue::isNew)
-      // SONARGITUB-13 Ignore issues on files not modified by the P/R
-      .filter(i -> {
-        InputComponent inputComponent = i.inputComponent();
-        return inputComponent == null ||
-          !inputComponent.isFile() ||
-          pullRequestFacade.hasFile((InputFile) inputComponent);
-      })
-      .sorted(ISSUE_COMPARATOR)
-      .forEach(i -> processIssue(report, commentToBeAddedByFileAndByLine, i));
-    return commentToBeAddedByFileAndByLine;
+  /**
+   * Sinks are optional exports of the issues: their failures are logged, but don't fail the pull request decoration.
+   */
+  private List<IssueSink> createSinks() {
+    List<IssueSink> sinks = new ArrayList<>();
+    if (gitHubPluginConfiguration.isSarifExportEnabled()) {
+      File sarif = new File(pullRequestFacade.workDir(), SarifSink.FILE_NAME);
+      try {
+        sinks.add(new SarifSink(sarif, pullRequestFacade, gitHubPluginConfiguration.isCodeScanningUploadEnabled()));
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Unable to create " + sarif, e);
+      }
+    }
+    return sinks;
+  }
 
+  private static void processInSinks(PostJobIssue issue, List<IssueSink> sinks) {
+    Iterator<IssueSink> it = sinks.iterator();
+    while (it.hasNext()) {
+      IssueSink sink = it.next();
+      try {
+        sink.process(issue);
+      } catch (RuntimeException e) {
+        LOG.warn("Unable to export issues with " + sink.getClass().getSimpleName() + ", export is stopped", e);
+        it.remove();
+        abort(sink);
+      }
+    }
   }
 
-  private void processIssue(GlobalReport report, Map<InputFile, Map<Integer, StringBuilder>> commentToBeAddedByFileAndByLine, PostJobIssue issue) {
-    boolean reportedInline = false;
-    InputComponent inputComponent = issue.inputComponent();
-    if (gitHubPluginConfiguration.tryReportIssuesInline() && inputComponent != null && inputComponent.isFile()) {
-      reportedInline = tryReportInline(commentToBeAddedByFileAndByLine, issue, (InputFile) inputComponent);
+  /**
+   * In summary-only mode, no review comment of the previous analyses is reused: deleting them all would cost the write operations
+   * this mode is meant to save. Only as many as {@link GitHubPlugin#GITHUB_SUMMARY_ONLY_THRESHOLD} are deleted, the next analyses
+   * delete the others.
+   */
+  private WriteBudget summaryOnlyDeletions(WriteBudget writeBudget) {
+    int limit = Math.min(gitHubPluginConfiguration.summaryOnlyThreshold(), writeBudget.remaining());
+    Integer rateLimitRemaining = pullRequestFacade.rateLimitRemaining();
+    if (rateLimitRemaining != null) {
+      limit = Math.min(limit, rateLimitRemaining);
     }
-    report.process(issue, pullRequestFacade.getGithubUrl(inputComponent, issue.line()), reportedInline);
+    return new WriteBudget(limit, writeBudget.deadline(), system2);
   }
 
-  private boolean tryReportInline(Map<InputFile, Map<Integer, StringBuilder>> commentToBeAddedByFileAndByLine, PostJobIssue issue, InputFile inputFile) {
+  /**
+   * Issues are classified file by file, in parallel, then merged. Inline comments are published, and issues that
+   * can't be reported inline are given to the global report in {@link IssueComparator} order, like inline issues
+   * of a given line.
+   * @return false if the issues are only reported in the global comment, see {@link #isInlineReportAffordable(List, GlobalReport)}
+   */
+  private boolean processIssues(GlobalReport report, Iterable<PostJobIssue> issues, WriteBudget writeBudget, Tracer tracer, List<IssueSink> sinks,
+    @Nullable PublicationPlan plan) {
+    Map<InputFile, List<PostJobIssue>> newIssuesByFile = new HashMap<>();
+    List<PostJobIssue> extraIssues = new ArrayList<>();
+    for (PostJobIssue issue : issues) {
+      if (!issue.isNew()) {
+        continue;
+      }
+      processInSinks(issue, sinks);
+      InputComponent inputComponent = issue.inputComponent();
+      if (inputComponent != null && inputComponent.isFile()) {
+        newIssuesByFile.computeIfAbsent((InputFile) inputComponent, f -> new ArrayList<>()).add(issue);
+      } else {
+        extraIssues.add(issue);
+      }
+    }
+
+    List<InlineComment> inlineComments = new ArrayList<>();
+    for (FileIssues fileIssues : classifyByFile(newIssuesByFile, tracer)) {
+      inlineComments.addAll(fileIssues.commentsByLine.values());
+      extraIssues.addAll(fileIssues.extraIssues);
+    }
+    for (InlineComment comment : inlineComments) {
+      comment.setUpToDate(pullRequestFacade.hasUpToDateReviewComment(comment.inputFile(), comment.line(), comment.text()));
+    }
+    boolean inlineReport = isInlineReportAffordable(inlineComments, report);
+    if (!inlineReport) {
+      for (InlineComment comment : inlineComments) {
+        extraIssues.addAll(comment.issues());
+      }
+      inlineComments.clear();
+    }
+
+    List<InlineComment> publishedComments;
+    try (Tracer.Span span = tracer.start("publish", "publishReviewComments")) {
+      publishedComments = publishReviewComments(inlineComments, writeBudget, report, extraIssues, plan);
+    }
+    int[] inlineIssuesBySeverity = new int[Severity.values().length];
+    for (InlineComment comment : publishedComments) {
+      for (PostJobIssue issue : comment.issues()) {
+        inlineIssuesBySeverity[issue.severity().ordinal()]++;
+      }
+    }
+    report.processReportedOnDiff(inlineIssuesBySeverity);
+
+    extraIssues.sort(ISSUE_COMPARATOR);
+    for (PostJobIssue issue : extraIssues) {
+      report.processExtraIssue(issue, () -> pullRequestFacade.getGithubUrl(issue.inputComponent(), issue.line()));
+    }
+    return inlineReport;
+  }
+
+  /**
+   * Estimates the write operations needed by the review comments, to switch to the summary-only mode when there are more than
+   * {@link GitHubPlugin#GITHUB_SUMMARY_ONLY_THRESHOLD} or than the requests left in the rate limit of GitHub. All issues are then
+   * reported in the global comment, which needs a single write operation.
+   * @return false if the issues of the review comments must only be reported in the global comment
+   */
+  private boolean isInlineReportAffordable(List<InlineComment> inlineComments, GlobalReport report) {
+    int threshold = gitHubPluginConfiguration.summaryOnlyThreshold();
+    if (threshold == Integer.MAX_VALUE || inlineComments.isEmpty()) {
+      return true;
+    }
+    int writes = 0;
+    int issueCount = 0;
+    for (InlineComment comment : inlineComments) {
+      if (!comment.isUpToDate()) {
+        writes++;
+      }
+      issueCount += comment.issues().size();
+    }
+    Integer rateLimitRemaining = pullRequestFacade.rateLimitRemaining();
+    String reason;
+    if (writes > threshold) {
+      reason = "more than the threshold of " + threshold;
+    } else if (rateLimitRemaining != null && writes > rateLimitRemaining) {
+      reason = "more than the " + rateLimitRemaining + " requests left in the GitHub rate limit";
+    } else {
+      return true;
+    }
+    String issues = issueCount + (issueCount > 1 ? " issues are" : " issue is");
+    LOG.warn("Review comments would need {} GitHub write operations, {}: issues will only be reported in the global comment", writes, reason);
+    report.switchToSummaryOnly();
+    report.addNote(issues + " only reported in this comment because line comments would need " + writes
+      + " GitHub write operations, " + reason + ".");
+    return false;
+  }
+
+  /**
+   * Most severe comments are published first, so that they are the ones kept when GitHub write operations are
+   * limited in number or in time, or when GitHub becomes unhealthy. Issues of the comments that don't fit are reported in the global comment.
+   * With a publication plan, the comments that fit are added to the plan instead.
+   * @return published comments
+   */
+  private List<InlineComment> publishReviewComments(List<InlineComment> inlineComments, WriteBudget writeBudget, GlobalReport report, List<PostJobIssue> extraIssues,
+    @Nullable PublicationPlan plan) {
+    inlineComments.sort(INLINE_COMMENT_COMPARATOR);
+    List<InlineComment> published = new ArrayList<>(inlineComments.size());
+    int skippedIssues = 0;
+    for (InlineComment comment : inlineComments) {
+      boolean upToDate = comment.isUpToDate();
+      if ((upToDate || !pullRequestFacade.isGitHubDegraded()) && writeBudget.tryConsume(upToDate ? 0 : 1)) {
+        if (plan != null) {
+          plan.addReviewComment(pullRequestFacade.getPath(comment.inputFile()), comment.line(), comment.text());
+        } else {
+          pullRequestFacade.createOrUpdateReviewComment(comment.inputFile(), comment.line(), comment.text());
+        }
+        published.add(comment);
+      } else {
+        skippedIssues += comment.issues().size();
+        extraIssues.addAll(comment.issues());
+      }
+    }
+    if (skippedIssues > 0) {
+      String issues = skippedIssues + " issue" + (skippedIssues > 1 ? "s" : "");
+      if (pullRequestFacade.isGitHubDegraded()) {
+        LOG.warn("GitHub is unhealthy: {} will only be reported in the global comment", issues);
+        report.addNote(issues + " could not be reported as line comments because GitHub is currently unhealthy.");
+      } else if (writeBudget.isExpired()) {
+        LOG.warn("Publication timeout almost reached: {} will only be reported in the global comment", issues);
+        report.addNote(issues + " could not be reported as line comments because this analysis reached its publication timeout.");
+      } else {
+        LOG.warn("Limit of {} GitHub write operations reached: {} will only be reported in the global comment", writeBudget.limit(), issues);
+        report.addNote(issues + " could not be reported as line comments because this analysis reached its limit of "
+          + writeBudget.limit() + " GitHub write operations.");
+      }
+    }
+    return published;
+  }
+
+  private List<FileIssues> classifyByFile(Map<InputFile, List<PostJobIssue>> newIssuesByFile, Tracer tracer) {
+    int parallelism = Math.min(Runtime.getRuntime().availableProcessors(), newIssuesByFile.size());
+    List<FileIssues> result = new ArrayList<>(newIssuesByFile.size());
+    if (parallelism <= 1) {
+      for (Map.Entry<InputFile, List<PostJobIssue>> entry : newIssuesByFile.entrySet()) {
+        result.add(classify(entry.getKey(), entry.getValue(), tracer));
+      }
+      return result;
+    }
+    List<Callable<FileIssues>> tasks = new ArrayList<>(newIssuesByFile.size());
+    for (Map.Entry<InputFile, List<PostJobIssue>> entry : newIssuesByFile.entrySet()) {
+      tasks.add(() -> classify(entry.getKey(), entry.getValue(), tracer));
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (Future<FileIssues> future : pool.invokeAll(tasks)) {
+        result.add(future.get());
+      }
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while processing issues", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Issues of a single file, classified independently from other files so that files can be processed in parallel.
+   */
+  private static class FileIssues {
+    private final Map<Integer, InlineComment> commentsByLine = new HashMap<>();
+    private final List<PostJobIssue> extraIssues = new ArrayList<>();
+  }
+
+  private FileIssues classify(InputFile inputFile, List<PostJobIssue> issues, Tracer tracer) {
+    try (Tracer.Span span = tracer.start("publish", "classify")) {
+      if (tracer.isEnabled()) {
+        span.arg("file", inputFile.toString()).arg("issues", issues.size());
+      }
+      return classify(inputFile, issues);
+    }
+  }
+
+  private FileIssues classify(InputFile inputFile, List<PostJobIssue> issues) {
+    FileIssues result = new FileIssues();
+    // SONARGITUB-13 Ignore issues on files not modified by the P/R
+    if (!pullRequestFacade.hasFile(inputFile)) {
+      return result;
+    }
+    issues.sort(ISSUE_COMPARATOR);
+    for (PostJobIssue issue : issues) {
+      if (!gitHubPluginConfiguration.tryReportIssuesInline() || !tryReportInline(result.commentsByLine, issue, inputFile)) {
+        result.extraIssues.add(issue);
+      }
+    }
+    return result;
+  }
+
+  private boolean tryReportInline(Map<Integer, InlineComment> commentsByLine, PostJobIssue issue, InputFile inputFile) {
     Integer lineOrNull = issue.line();
     if (lineOrNull != null) {
       int line = lineOrNull.intValue();
       if (pullRequestFacade.hasFileLine(inputFile, line)) {
         String message = issue.message();
         String ruleKey = issue.ruleKey().toString();
-        if (!commentToBeAddedByFileAndByLine.containsKey(inputFile)) {
-          commentToBeAddedByFileAndByLine.put(inputFile, new HashMap<Integer, StringBuilder>());
-        }
-        Map<Integer, StringBuilder> commentsByLine = commentToBeAddedByFileAndByLine.get(inputFile);
-        if (!commentsByLine.containsKey(line)) {
-          commentsByLine.put(line, new StringBuilder());
-        }
-        commentsByLine.get(line).append(markDownUtils.inlineIssue(issue.severity(), message, ruleKey)).append("\n");
+        InlineComment comment = commentsByLine.computeIfAbsent(line, l -> new InlineComment(inputFile, l));
+        markDownUtils.appendInlineIssue(comment.body(), issue.severity(), message, ruleKey).append("\n");
+        comment.issues().add(issue);
         return true;
       }
     }
     return false;
   }
 
-  private void updateReviewComments(Map<InputFile, Map<Integer, StringBuilder>> commentsToBeAddedByLine) {
-    for (Map.Entry<InputFile, Map<Integer, StringBuilder>> entry : commentsToBeAddedByLine.entrySet()) {
-      for (Map.Entry<Integer, StringBuilder> entryPerLine : entry.getValue().entrySet()) {
-        String body = entryPerLine.getValue().toString();
-        pullRequestFacade.createOrUpdateReviewComment(entry.getKey(), entryPerLine.getKey(), body);
-      }
-    }
-  }
-
 }
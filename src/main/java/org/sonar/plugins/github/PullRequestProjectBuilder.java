@@ -19,7 +19,7 @@
  */
 package org.sonar.plugins.github;
 
-import org.kohsuke.github.GHCommitState;
+import java.io.File;
 import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.AnalysisMode;
 import org.sonar.api.batch.bootstrap.ProjectBuilder;
@@ -32,6 +32,9 @@ import org.sonar.api.utils.MessageException;
  */
 public class PullRequestProjectBuilder extends ProjectBuilder {
 
+  private static final String PENDING_STATUS_DESCRIPTION = "SonarQube analysis in progress";
+  static final String TRACE_FILE = "github-trace.json";
+
   private final GitHubPluginConfiguration gitHubPluginConfiguration;
   private final PullRequestFacade pullRequestFacade;
   private final AnalysisMode mode;
@@ -49,9 +52,18 @@ public class PullRequestProjectBuilder extends ProjectBuilder {
     }
     checkMode();
     int pullRequestNumber = gitHubPluginConfiguration.pullRequestNumber();
+    File workDir = context.projectReactor().getRoot().getWorkDir();
+    pullRequestFacade.setWorkDir(workDir);
+    if (gitHubPluginConfiguration.isTraceEnabled()) {
+      pullRequestFacade.setTracer(new Tracer(new File(workDir, TRACE_FILE).toPath(), System::nanoTime));
+    }
+    if (gitHubPluginConfiguration.isBackgroundInit()) {
+      pullRequestFacade.initInBackground(pullRequestNumber, context.projectReactor().getRoot().getBaseDir(), PENDING_STATUS_DESCRIPTION);
+      return;
+    }
     pullRequestFacade.init(pullRequestNumber, context.projectReactor().getRoot().getBaseDir());
 
-    pullRequestFacade.createOrUpdateSonarQubeStatus(GHCommitState.PENDING, "SonarQube analysis in progress");
+    pullRequestFacade.createPendingSonarQubeStatus(PENDING_STATUS_DESCRIPTION);
   }
 
   private void checkMode() {
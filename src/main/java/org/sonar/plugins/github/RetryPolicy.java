@@ -0,0 +1,126 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.UnknownHostException;
+import java.util.Random;
+import org.sonar.plugins.github.GitHubRestClient.HttpResponseException;
+
+/**
+ * Decides whether a failed GitHub WS call is attempted again, and how long to wait before: the delay requested
+ * by GitHub when it throttles requests, otherwise an exponential backoff with full jitter.
+ */
+class RetryPolicy {
+
+  static final int DEFAULT_MAX_ATTEMPTS = 4;
+  private static final long BASE_DELAY_MS = 1_000;
+  private static final long MAX_DELAY_MS = 30_000;
+  // Waiting longer than that for GitHub is not worth blocking the analysis
+  private static final long MAX_REQUESTED_DELAY_MS = 60_000;
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  interface Sleeper {
+    void sleep(long millis) throws InterruptedException;
+  }
+
+  private final int maxAttempts;
+  private final Random random;
+  private final Sleeper sleeper;
+
+  RetryPolicy(int maxAttempts) {
+    this(maxAttempts, new Random(), Thread::sleep);
+  }
+
+  RetryPolicy(int maxAttempts, Random random, Sleeper sleeper) {
+    this.maxAttempts = maxAttempts;
+    this.random = random;
+    this.sleeper = sleeper;
+  }
+
+  /**
+   * @param attempt number of the attempt that failed, starting at 1
+   * @return delay in milliseconds before the next attempt, or -1 if the call must not be attempted again
+   */
+  long delayBeforeRetry(int attempt, IOException failure) {
+    return delayBeforeRetry(attempt, failure, Long.MAX_VALUE);
+  }
+
+  /**
+   * Same as {@link #delayBeforeRetry(int, IOException)}, for a call that must not be attempted again after a deadline.
+   * @param timeLeftMs time left before the deadline, {@link Long#MAX_VALUE} for no deadline
+   */
+  long delayBeforeRetry(int attempt, IOException failure, long timeLeftMs) {
+    if (attempt >= maxAttempts || timeLeftMs <= 0 || !isTransient(failure)) {
+      return -1;
+    }
+    Long requestedDelay = failure instanceof HttpResponseException ? ((HttpResponseException) failure).retryAfterMs() : null;
+    if (requestedDelay != null) {
+      // Attempting again sooner than requested would be throttled again
+      return requestedDelay <= Math.min(MAX_REQUESTED_DELAY_MS, timeLeftMs) ? requestedDelay : -1;
+    }
+    long maxDelay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt - 1, 16));
+    return Math.min((long) (random.nextDouble() * maxDelay), timeLeftMs);
+  }
+
+  void sleep(long millis) throws InterruptedIOException {
+    try {
+      sleeper.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to call GitHub again");
+    }
+  }
+
+  /**
+   * Server errors, throttling and network failures are transient. A missing resource, a malformed response or any other
+   * client error won't be different on the next attempt.
+   */
+  static boolean isTransient(IOException failure) {
+    if (failure instanceof HttpResponseException) {
+      HttpResponseException responseException = (HttpResponseException) failure;
+      int code = responseException.responseCode();
+      return code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+        || code == HTTP_TOO_MANY_REQUESTS
+        // Secondary rate limit, or primary rate limit soon to be reset
+        || (code == HttpURLConnection.HTTP_FORBIDDEN && responseException.retryAfterMs() != null);
+    }
+    return !(failure instanceof FileNotFoundException)
+      && !(failure instanceof JsonProcessingException)
+      && !(failure instanceof UnknownHostException)
+      && !(failure instanceof InterruptedIOException && Thread.currentThread().isInterrupted());
+  }
+
+  /**
+   * @return true if GitHub may have processed the request despite the failure, so that replaying a creation
+   * could create a duplicate
+   */
+  static boolean mayHaveSucceeded(IOException failure) {
+    if (failure instanceof HttpResponseException) {
+      return ((HttpResponseException) failure).responseCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+    return !(failure instanceof ConnectException);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.TreeSet;
+import org.sonar.api.batch.fs.InputComponent;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Writes the new issues to a SARIF 2.1.0 file as they are processed, so that memory does not depend on their number,
+ * and optionally uploads this file to the code scanning API of GitHub in a single request.
+ */
+class SarifSink implements IssueSink {
+
+  private static final Logger LOG = Loggers.get(SarifSink.class);
+  static final String FILE_NAME = "github-issues.sarif";
+
+  private final File file;
+  private final PullRequestFacade pullRequestFacade;
+  private final boolean upload;
+  private final JsonGenerator generator;
+  // Rules of the reported issues, written once all results are known
+  private final Set<String> ruleKeys = new TreeSet<>();
+
+  SarifSink(File file, PullRequestFacade pullRequestFacade, boolean upload) throws IOException {
+    this.file = file;
+    this.pullRequestFacade = pullRequestFacade;
+    this.upload = upload;
+    Files.createDirectories(file.getParentFile().toPath());
+    this.generator = GitHubRestClient.JSON_FACTORY.createGenerator(Files.newOutputStream(file.toPath()));
+    generator.writeStartObject();
+    generator.writeStringField("$schema", "https://json.schemastore.org/sarif-2.1.0.json");
+    generator.writeStringField("version", "2.1.0");
+    generator.writeArrayFieldStart("runs");
+    generator.writeStartObject();
+    generator.writeArrayFieldStart("results");
+  }
+
+  /**
+   * Only issues located in a file are exported, since code scanning does not display the others.
+   */
+  @Override
+  public void process(PostJobIssue issue) {
+    InputComponent inputComponent = issue.inputComponent();
+    if (inputComponent == null || !inputComponent.isFile()) {
+      return;
+    }
+    String ruleKey = issue.ruleKey().toString();
+    ruleKeys.add(ruleKey);
+    try {
+      generator.writeStartObject();
+      generator.writeStringField("ruleId", ruleKey);
+      generator.writeStringField("level", level(issue.severity()));
+      generator.writeObjectFieldStart("message");
+      String message = issue.message();
+      generator.writeStringField("text", message != null ? message : ruleKey);
+      generator.writeEndObject();
+      generator.writeArrayFieldStart("locations");
+      generator.writeStartObject();
+      generator.writeObjectFieldStart("physicalLocation");
+      generator.writeObjectFieldStart("artifactLocation");
+      generator.writeStringField("uri", pullRequestFacade.getPath((InputFile) inputComponent));
+      generator.writeEndObject();
+      Integer line = issue.line();
+      if (line != null) {
+        generator.writeObjectFieldStart("region");
+        generator.writeNumberField("startLine", line);
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+      generator.writeEndObject();
+      generator.writeEndArray();
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write " + file, e);
+    }
+  }
+
+  @Override
+  public void finish() {
+    try {
+      generator.writeEndArray();
+      generator.writeObjectFieldStart("tool");
+      generator.writeObjectFieldStart("driver");
+      generator.writeStringField("name", "SonarQube");
+      generator.writeStringField("informationUri", "https://www.sonarqube.org/");
+      generator.writeArrayFieldStart("rules");
+      for (String ruleKey : ruleKeys) {
+        generator.writeStartObject();
+        generator.writeStringField("id", ruleKey);
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+      generator.writeEndObject();
+      generator.writeEndObject();
+      generator.writeEndArray();
+      generator.writeEndObject();
+      generator.close();
+    } catch (IOException e) {
+      abort();
+      throw new IllegalStateException("Unable to write " + file, e);
+    }
+    if (upload) {
+      pullRequestFacade.uploadCodeScanningAnalysis(file);
+    }
+  }
+
+  /**
+   * A truncated file would not be valid SARIF, it is deleted.
+   */
+  @Override
+  public void abort() {
+    try {
+      generator.close();
+    } catch (IOException e) {
+      LOG.debug("Unable to close " + file, e);
+    }
+    try {
+      Files.deleteIfExists(file.toPath());
+    } catch (IOException e) {
+      LOG.warn("Unable to delete " + file, e);
+    }
+  }
+
+  static String level(Severity severity) {
+    switch (severity) {
+      case BLOCKER:
+      case CRITICAL:
+        return "error";
+      case MAJOR:
+        return "warning";
+      default:
+        return "note";
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Token bucket limiting the content-creating requests sent to GitHub by all the analyses of the machine that use the same
+ * token, so that parallel builds don't trigger the secondary rate limits together. The bucket is kept in a local file,
+ * locked while a request takes its permit:
+ * <pre>
+ * double: permits left
+ * long: time of the last refill
+ * </pre>
+ */
+class SharedRateLimiter {
+
+  private static final Logger LOG = Loggers.get(SharedRateLimiter.class);
+  private static final int STATE_SIZE = Double.BYTES + Long.BYTES;
+  private static final String SUFFIX = ".bucket";
+  // File locks are held by the JVM, they don't prevent threads of the same JVM from reading the bucket at the same time
+  private static final Object LOCAL_LOCK = new Object();
+
+  private final int permitsPerMinute;
+  @Nullable
+  private final Path stateFile;
+  private final LongSupplier clock;
+  private final RetryPolicy.Sleeper sleeper;
+
+  /**
+   * @param permitsPerMinute average number of permits per minute, which is also the maximum burst, 0 to not limit requests
+   * @param stateFile file shared with the other analyses, see {@link #stateFile(Path, String, String)}
+   */
+  SharedRateLimiter(int permitsPerMinute, @Nullable Path stateFile, LongSupplier clock, RetryPolicy.Sleeper sleeper) {
+    this.permitsPerMinute = permitsPerMinute;
+    this.stateFile = stateFile;
+    this.clock = clock;
+    this.sleeper = sleeper;
+  }
+
+  static SharedRateLimiter unlimited() {
+    return new SharedRateLimiter(0, null, System::currentTimeMillis, Thread::sleep);
+  }
+
+  /**
+   * @return the file of the bucket of a token, which is not written in clear in the name of the file
+   */
+  static Path stateFile(Path dir, String endpoint, @Nullable String oauth) {
+    return dir.resolve(LocalFiles.hashedName(SUFFIX, endpoint, oauth != null ? oauth : ""));
+  }
+
+  /**
+   * Waits until a permit is available and takes it. Requests are not limited when the bucket can't be read or written.
+   */
+  void acquire() throws IOException {
+    acquire(Long.MAX_VALUE);
+  }
+
+  /**
+   * Same as {@link #acquire()}, but does not wait after the deadline: the request is then sent without permit.
+   */
+  void acquire(long deadline) throws IOException {
+    if (permitsPerMinute <= 0 || stateFile == null) {
+      return;
+    }
+    long delay;
+    while ((delay = tryAcquire()) > 0) {
+      long remaining = deadline - clock.getAsLong();
+      if (remaining <= 0) {
+        LOG.debug("Shared rate limit of {} requests per minute reached after the deadline, the request is not limited", permitsPerMinute);
+        return;
+      }
+      delay = Math.min(delay, remaining);
+      LOG.debug("Shared rate limit of {} requests per minute reached, waiting {} ms", permitsPerMinute, delay);
+      try {
+        sleeper.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the shared rate limit");
+      }
+    }
+  }
+
+  /**
+   * @return 0 if a permit was taken, otherwise the delay in milliseconds until one is available
+   */
+  private long tryAcquire() throws InterruptedIOException {
+    synchronized (LOCAL_LOCK) {
+      try {
+        Files.createDirectories(stateFile.getParent());
+        try (FileChannel channel = FileChannel.open(stateFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+          FileLock lock = channel.lock()) {
+          return takePermit(channel);
+        }
+      } catch (IOException e) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Interrupted while waiting for the shared rate limit");
+        }
+        LOG.warn("Unable to use the shared rate limit " + stateFile + ", the request is not limited", e);
+        return 0L;
+      }
+    }
+  }
+
+  private long takePermit(FileChannel channel) throws IOException {
+    long now = clock.getAsLong();
+    double permitsPerMs = permitsPerMinute / (double) TimeUnit.MINUTES.toMillis(1);
+    double permits = permitsPerMinute;
+    ByteBuffer state = ByteBuffer.allocate(STATE_SIZE);
+    while (state.hasRemaining() && channel.read(state, state.position()) >= 0) {
+      // read until the end of the state or of the file
+    }
+    if (!state.hasRemaining()) {
+      state.flip();
+      double storedPermits = state.getDouble();
+      long refilledAt = state.getLong();
+      // A new or unreadable bucket is full
+      if (storedPermits >= 0 && storedPermits <= permitsPerMinute) {
+        permits = Math.min(permitsPerMinute, storedPermits + Math.max(0L, now - refilledAt) * permitsPerMs);
+      }
+    }
+    long delay = 0L;
+    if (permits >= 1) {
+      permits -= 1;
+    } else {
+      delay = (long) Math.ceil((1 - permits) / permitsPerMs);
+    }
+    state.clear();
+    state.putDouble(permits).putLong(now).flip();
+    while (state.hasRemaining()) {
+      channel.write(state, state.position());
+    }
+    return delay;
+  }
+}
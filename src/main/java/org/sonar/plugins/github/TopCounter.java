@@ -0,0 +1,113 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Counts occurrences of keys in a single pass with a bounded number of counters, to find the most frequent ones
+ * (Space-Saving algorithm). As long as the number of distinct keys does not exceed the capacity, counts are exact.
+ * Otherwise the key of the smallest counter is replaced by the new key, and the count of a key is then over-estimated
+ * by at most its {@link Entry#error()}.
+ * Entries are also kept ordered by count, so that adding a key costs O(log(capacity)) whatever the number of distinct keys.
+ */
+class TopCounter {
+  // Smallest count first, then greatest key, so that the descending order is the one of top(n)
+  private static final Comparator<Entry> BY_COUNT = Comparator.<Entry>comparingLong(e -> e.count).thenComparing(e -> e.key, Comparator.reverseOrder());
+
+  private final int capacity;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private final TreeSet<Entry> entriesByCount = new TreeSet<>(BY_COUNT);
+
+  TopCounter(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    this.capacity = capacity;
+  }
+
+  void add(String key) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      // The count is part of the order, the entry must be moved
+      entriesByCount.remove(entry);
+      entry.count++;
+      entriesByCount.add(entry);
+      return;
+    }
+    if (entries.size() < capacity) {
+      put(new Entry(key, 1, 0));
+      return;
+    }
+    Entry smallest = entriesByCount.pollFirst();
+    entries.remove(smallest.key);
+    put(new Entry(key, smallest.count + 1, smallest.count));
+  }
+
+  private void put(Entry entry) {
+    entries.put(entry.key, entry);
+    entriesByCount.add(entry);
+  }
+
+  /**
+   * @return at most {@code n} entries, by decreasing count then by key
+   */
+  List<Entry> top(int n) {
+    List<Entry> result = new ArrayList<>(Math.min(n, entries.size()));
+    Iterator<Entry> it = entriesByCount.descendingIterator();
+    while (it.hasNext() && result.size() < n) {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  static class Entry {
+    private final String key;
+    private long count;
+    private final long error;
+
+    private Entry(String key, long count, long error) {
+      this.key = key;
+      this.count = count;
+      this.error = error;
+    }
+
+    String key() {
+      return key;
+    }
+
+    long count() {
+      return count;
+    }
+
+    /**
+     * @return maximum over-estimation of {@link #count()}
+     */
+    long error() {
+      return error;
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Records the time spent in the steps of the decoration of the pull request and in each GitHub request, and writes
+ * them as a Chrome Trace Event file, that can be opened in Perfetto or chrome://tracing. Spans are recorded per thread,
+ * so that overlapping work is visible.
+ */
+class Tracer {
+
+  private static final Logger LOG = Loggers.get(Tracer.class);
+  private static final Tracer DISABLED = new Tracer(null, System::nanoTime);
+  private static final Span NO_SPAN = new Span(null, "", "");
+
+  @Nullable
+  private final Path file;
+  private final LongSupplier nanoClock;
+  private final long startNanos;
+  private final List<Event> events = new ArrayList<>();
+  private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+  /**
+   * @param file trace file to be written, or null to disable tracing
+   */
+  Tracer(@Nullable Path file, LongSupplier nanoClock) {
+    this.file = file;
+    this.nanoClock = nanoClock;
+    this.startNanos = nanoClock.getAsLong();
+  }
+
+  static Tracer disabled() {
+    return DISABLED;
+  }
+
+  /**
+   * Whether spans are recorded, so that their arguments are only computed when needed.
+   */
+  boolean isEnabled() {
+    return file != null;
+  }
+
+  /**
+   * Starts a span of the current thread, recorded when it is closed.
+   */
+  Span start(String category, String name) {
+    if (file == null) {
+      return NO_SPAN;
+    }
+    Thread thread = Thread.currentThread();
+    threadNames.putIfAbsent(thread.getId(), thread.getName());
+    return new Span(this, category, name);
+  }
+
+  private synchronized void record(Event event) {
+    events.add(event);
+  }
+
+  private long nowMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(nanoClock.getAsLong() - startNanos);
+  }
+
+  /**
+   * Writes the spans closed so far. Failures are only logged, since tracing must not fail the analysis.
+   */
+  void write() {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.createDirectories(file.getParent());
+      try (OutputStream os = Files.newOutputStream(file); JsonGenerator generator = GitHubRestClient.JSON_FACTORY.createGenerator(os)) {
+        writeTo(generator);
+      }
+      LOG.info("Trace of the pull request decoration written to {}", file);
+    } catch (IOException e) {
+      LOG.warn("Unable to write trace file " + file, e);
+    }
+  }
+
+  synchronized void writeTo(JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("displayTimeUnit", "ms");
+    generator.writeArrayFieldStart("traceEvents");
+    for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+      generator.writeStartObject();
+      generator.writeStringField("name", "thread_name");
+      generator.writeStringField("ph", "M");
+      generator.writeNumberField("pid", 1);
+      generator.writeNumberField("tid", thread.getKey());
+      generator.writeObjectFieldStart("args");
+      generator.writeStringField("name", thread.getValue());
+      generator.writeEndObject();
+      generator.writeEndObject();
+    }
+    for (Event event : events) {
+      generator.writeStartObject();
+      generator.writeStringField("name", event.name);
+      generator.writeStringField("cat", event.category);
+      generator.writeStringField("ph", "X");
+      generator.writeNumberField("ts", event.startMicros);
+      generator.writeNumberField("dur", event.durationMicros);
+      generator.writeNumberField("pid", 1);
+      generator.writeNumberField("tid", event.threadId);
+      if (event.args != null) {
+        generator.writeObjectFieldStart("args");
+        for (Map.Entry<String, Object> arg : event.args.entrySet()) {
+          if (arg.getValue() instanceof Number) {
+            generator.writeNumberField(arg.getKey(), ((Number) arg.getValue()).longValue());
+          } else {
+            generator.writeStringField(arg.getKey(), String.valueOf(arg.getValue()));
+          }
+        }
+        generator.writeEndObject();
+      }
+      generator.writeEndObject();
+    }
+    generator.writeEndArray();
+    generator.writeEndObject();
+  }
+
+  private static class Event {
+    private final String category;
+    private final String name;
+    private final long threadId;
+    private final long startMicros;
+    private final long durationMicros;
+    @Nullable
+    private final Map<String, Object> args;
+
+    private Event(String category, String name, long threadId, long startMicros, long durationMicros, @Nullable Map<String, Object> args) {
+      this.category = category;
+      this.name = name;
+      this.threadId = threadId;
+      this.startMicros = startMicros;
+      this.durationMicros = durationMicros;
+      this.args = args;
+    }
+  }
+
+  /**
+   * Span of a thread, to be closed by the same thread.
+   */
+  static class Span implements AutoCloseable {
+    @Nullable
+    private final Tracer tracer;
+    private final String category;
+    private final String name;
+    private final long threadId;
+    private final long startMicros;
+    @CheckForNull
+    private Map<String, Object> args;
+
+    private Span(@Nullable Tracer tracer, String category, String name) {
+      this.tracer = tracer;
+      this.category = category;
+      this.name = name;
+      this.threadId = Thread.currentThread().getId();
+      this.startMicros = tracer != null ? tracer.nowMicros() : 0L;
+    }
+
+    /**
+     * @param value number or text shown with the span
+     */
+    Span arg(String key, Object value) {
+      if (tracer != null) {
+        if (args == null) {
+          args = new LinkedHashMap<>();
+        }
+        args.put(key, value);
+      }
+      return this;
+    }
+
+    @Override
+    public void close() {
+      if (tracer != null) {
+        tracer.record(new Event(category, name, threadId, startMicros, tracer.nowMicros() - startMicros, args));
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.util.concurrent.TimeUnit;
+import org.sonar.api.utils.System2;
+
+/**
+ * GitHub write operations (creations, updates and deletions of review comments) still allowed for an analysis,
+ * bounded by a number of operations and by a deadline.
+ */
+class WriteBudget {
+  // Part of the publication timeout kept to publish the global comment and the commit status
+  private static final long MAX_RESERVED_TIME_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private final int limit;
+  private final long deadline;
+  private final System2 system2;
+  private int used = 0;
+
+  /**
+   * @param limit maximum number of write operations, {@link Integer#MAX_VALUE} for no limit
+   * @param deadline time after which no write operation is allowed, {@link Long#MAX_VALUE} for no deadline
+   */
+  WriteBudget(int limit, long deadline, System2 system2) {
+    this.limit = limit;
+    this.deadline = deadline;
+    this.system2 = system2;
+  }
+
+  /**
+   * Budget of a publication starting now, limited by {@link GitHubPluginConfiguration#maxWriteOperations()} and by
+   * {@link GitHubPluginConfiguration#publicationTimeoutMs()}. Writes stop before the publication timeout, leaving time to publish
+   * the global comment and the final commit status, so that the pull request is never left with the pending status.
+   */
+  static WriteBudget forPublication(GitHubPluginConfiguration config, System2 system2) {
+    long timeout = config.publicationTimeoutMs();
+    long deadline = timeout == 0 ? Long.MAX_VALUE : (system2.now() + timeout - Math.min(MAX_RESERVED_TIME_MS, timeout / 4));
+    return new WriteBudget(config.maxWriteOperations(), deadline, system2);
+  }
+
+  int limit() {
+    return limit;
+  }
+
+  long deadline() {
+    return deadline;
+  }
+
+  int remaining() {
+    return limit - used;
+  }
+
+  boolean isExpired() {
+    return system2.now() >= deadline;
+  }
+
+  /**
+   * @return true if the operations fit in the budget, in which case they are deducted from it
+   */
+  boolean tryConsume(int operations) {
+    if (operations == 0) {
+      return true;
+    }
+    if (operations > remaining() || isExpired()) {
+      return false;
+    }
+    used += operations;
+    return true;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ChangedLineRangesTest {
+
+  @Test
+  public void keep_lines_of_hunks() {
+    ChangedLineRanges ranges = ChangedLineRanges.parse("src/Foo.java", "@@ -17,9 +17,13 @@ foo\n a\n+b\n c\n@@ -40,2 +44,3 @@\n d\n+e\n f");
+
+    assertThat(ranges.path()).isEqualTo("src/Foo.java");
+    assertThat(ranges.location(16)).isNull();
+    assertThat(ranges.location(17)).isEqualTo(17);
+    assertThat(ranges.location(29)).isEqualTo(29);
+    assertThat(ranges.location(30)).isNull();
+    assertThat(ranges.location(43)).isNull();
+    assertThat(ranges.location(44)).isEqualTo(44);
+    assertThat(ranges.location(46)).isEqualTo(46);
+    assertThat(ranges.location(47)).isNull();
+  }
+
+  @Test
+  public void hunk_of_a_single_line() {
+    ChangedLineRanges ranges = ChangedLineRanges.parse("src/Foo.java", "@@ -1 +1 @@\n-a\n+b");
+
+    assertThat(ranges.location(1)).isEqualTo(1);
+    assertThat(ranges.location(2)).isNull();
+  }
+
+  @Test
+  public void ignore_hunk_removing_lines() {
+    ChangedLineRanges ranges = ChangedLineRanges.parse("src/Foo.java", "@@ -1,2 +0,0 @@\n-a\n-b");
+
+    assertThat(ranges.location(0)).isNull();
+    assertThat(ranges.location(1)).isNull();
+  }
+
+  @Test
+  public void no_line_without_patch() {
+    assertThat(ChangedLineRanges.parse("image.png", "").location(1)).isNull();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void fail_on_invalid_hunk_header() {
+    ChangedLineRanges.parse("src/Foo.java", "@@ foo @@");
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong(1_000_000L);
+  private Path stateFile;
+  private CircuitBreaker breaker;
+
+  @Before
+  public void prepare() throws IOException {
+    stateFile = temp.newFolder().toPath().resolve("breaker").resolve("github.state");
+    breaker = new CircuitBreaker(3, 1_000L, stateFile, now::get);
+  }
+
+  @Test
+  public void open_after_consecutive_failures() {
+    breaker.recordFailure();
+    breaker.recordFailure();
+    breaker.recordSuccess(10L);
+    breaker.recordFailure();
+    breaker.recordFailure();
+    assertThat(breaker.isOpen()).isFalse();
+    assertThat(Files.exists(stateFile)).isFalse();
+
+    breaker.recordFailure();
+    assertThat(breaker.isOpen()).isTrue();
+    assertThat(Files.exists(stateFile)).isTrue();
+
+    now.addAndGet(CircuitBreaker.OPEN_DURATION_MS);
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test
+  public void slow_calls_are_failures() {
+    breaker.recordSuccess(1_001L);
+    breaker.recordSuccess(5_000L);
+    breaker.recordSuccess(2_000L);
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  @Test
+  public void state_is_shared_with_other_analyses() {
+    for (int i = 0; i < 3; i++) {
+      breaker.recordFailure();
+    }
+
+    CircuitBreaker otherBreaker = new CircuitBreaker(3, 1_000L, stateFile, now::get);
+    assertThat(otherBreaker.isOpen()).isTrue();
+  }
+
+  @Test
+  public void read_state_of_other_analyses_periodically() {
+    assertThat(breaker.isOpen()).isFalse();
+    CircuitBreaker otherBreaker = new CircuitBreaker(3, 1_000L, stateFile, now::get);
+    for (int i = 0; i < 3; i++) {
+      otherBreaker.recordFailure();
+    }
+
+    // State read less than STATE_READ_INTERVAL_MS ago
+    assertThat(breaker.isOpen()).isFalse();
+    now.addAndGet(CircuitBreaker.STATE_READ_INTERVAL_MS);
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  @Test
+  public void single_failure_opens_again_after_open_period() {
+    for (int i = 0; i < 3; i++) {
+      breaker.recordFailure();
+    }
+    now.addAndGet(CircuitBreaker.OPEN_DURATION_MS);
+
+    breaker.recordFailure();
+    assertThat(breaker.isOpen()).isTrue();
+  }
+
+  @Test
+  public void close_after_success_following_open_period() {
+    for (int i = 0; i < 3; i++) {
+      breaker.recordFailure();
+    }
+    // Successful calls while open don't close the breaker
+    breaker.recordSuccess(10L);
+    assertThat(breaker.isOpen()).isTrue();
+
+    now.addAndGet(CircuitBreaker.OPEN_DURATION_MS);
+    breaker.recordSuccess(10L);
+    assertThat(Files.exists(stateFile)).isFalse();
+    breaker.recordFailure();
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test
+  public void ignore_unreadable_state() throws IOException {
+    Files.createDirectories(stateFile.getParent());
+    Files.write(stateFile, "garbage".getBytes());
+    assertThat(breaker.isOpen()).isFalse();
+  }
+
+  @Test
+  public void never_open_when_disabled() {
+    CircuitBreaker disabled = CircuitBreaker.disabled();
+    for (int i = 0; i < 100; i++) {
+      disabled.recordFailure();
+    }
+    assertThat(disabled.isOpen()).isFalse();
+  }
+}
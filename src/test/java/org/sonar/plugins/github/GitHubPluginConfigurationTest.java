@@ -19,6 +19,7 @@
  */
 package org.sonar.plugins.github;
 
+import java.io.File;
 import java.net.Proxy;
 import org.junit.Before;
 import org.junit.Rule;
@@ -32,6 +33,7 @@ import org.sonar.api.utils.MessageException;
 import org.sonar.api.utils.System2;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -117,6 +119,140 @@ public class GitHubPluginConfigurationTest {
     assertThat(config.tryReportIssuesInline()).isFalse();
   }
 
+  @Test
+  public void stateDir() {
+    System2 system2 = mock(System2.class);
+    when(system2.property("user.home")).thenReturn("/home/me");
+    config = new GitHubPluginConfiguration(settings, system2);
+    assertThat(config.stateDir()).isEqualTo(new File("/home/me/.sonar/github"));
+
+    when(system2.envVariable("SONAR_USER_HOME")).thenReturn("/sonar");
+    assertThat(config.stateDir()).isEqualTo(new File("/sonar/github"));
+
+    settings.setProperty(GitHubPlugin.GITHUB_STATE_DIR, "/tmp/state");
+    assertThat(config.stateDir()).isEqualTo(new File("/tmp/state"));
+
+    assertThat(config.isPublicationJournalEnabled()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_PUBLICATION_JOURNAL, "true");
+    assertThat(config.isPublicationJournalEnabled()).isTrue();
+
+    settings.removeProperty(GitHubPlugin.GITHUB_PUBLICATION_JOURNAL);
+    assertThat(config.isIncremental()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_INCREMENTAL, "true");
+    assertThat(config.isIncremental()).isTrue();
+    assertThat(config.isPublicationJournalEnabled()).isTrue();
+  }
+
+  @Test
+  public void positionCache() {
+    assertThat(config.isPositionCacheEnabled()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_POSITION_CACHE, "true");
+    assertThat(config.isPositionCacheEnabled()).isTrue();
+  }
+
+  @Test
+  public void maxWriteOperations() {
+    assertThat(config.maxWriteOperations()).isEqualTo(Integer.MAX_VALUE);
+    settings.setProperty(GitHubPlugin.GITHUB_MAX_WRITE_OPERATIONS, "0");
+    assertThat(config.maxWriteOperations()).isEqualTo(Integer.MAX_VALUE);
+    settings.setProperty(GitHubPlugin.GITHUB_MAX_WRITE_OPERATIONS, "50");
+    assertThat(config.maxWriteOperations()).isEqualTo(50);
+  }
+
+  @Test
+  public void publicationTimeout() {
+    assertThat(config.publicationTimeoutMs()).isEqualTo(0L);
+    settings.setProperty(GitHubPlugin.GITHUB_PUBLICATION_TIMEOUT, "90");
+    assertThat(config.publicationTimeoutMs()).isEqualTo(90_000L);
+  }
+
+  @Test
+  public void circuitBreaker() {
+    assertThat(config.circuitBreakerFailureThreshold()).isEqualTo(0);
+    assertThat(config.circuitBreakerSlowCallThresholdMs()).isEqualTo(20_000L);
+    settings.setProperty(GitHubPlugin.GITHUB_CIRCUIT_BREAKER_FAILURE_THRESHOLD, "5");
+    settings.setProperty(GitHubPlugin.GITHUB_CIRCUIT_BREAKER_SLOW_CALL_THRESHOLD, "60");
+    assertThat(config.circuitBreakerFailureThreshold()).isEqualTo(5);
+    assertThat(config.circuitBreakerSlowCallThresholdMs()).isEqualTo(60_000L);
+  }
+
+  @Test
+  public void reviewCommentByLine() {
+    assertThat(config.isReviewCommentByLine()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_REVIEW_COMMENT_BY_LINE, "true");
+    assertThat(config.isReviewCommentByLine()).isTrue();
+  }
+
+  @Test
+  public void backgroundInit() {
+    assertThat(config.isBackgroundInit()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_BACKGROUND_INIT, "true");
+    assertThat(config.isBackgroundInit()).isTrue();
+  }
+
+  @Test
+  public void trace() {
+    assertThat(config.isTraceEnabled()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_TRACE, "true");
+    assertThat(config.isTraceEnabled()).isTrue();
+  }
+
+  @Test
+  public void sarif() {
+    assertThat(config.isSarifExportEnabled()).isFalse();
+    assertThat(config.isCodeScanningUploadEnabled()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_CODE_SCANNING, "true");
+    assertThat(config.isSarifExportEnabled()).isTrue();
+    assertThat(config.isCodeScanningUploadEnabled()).isTrue();
+  }
+
+  @Test
+  public void sharedRateLimit() {
+    assertThat(config.sharedRateLimit()).isEqualTo(0);
+    settings.setProperty(GitHubPlugin.GITHUB_SHARED_RATE_LIMIT, "-1");
+    assertThat(config.sharedRateLimit()).isEqualTo(0);
+    settings.setProperty(GitHubPlugin.GITHUB_SHARED_RATE_LIMIT, "30");
+    assertThat(config.sharedRateLimit()).isEqualTo(30);
+  }
+
+  @Test
+  public void summaryOnlyThreshold() {
+    assertThat(config.summaryOnlyThreshold()).isEqualTo(Integer.MAX_VALUE);
+    settings.setProperty(GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD, "0");
+    assertThat(config.summaryOnlyThreshold()).isEqualTo(Integer.MAX_VALUE);
+    settings.setProperty(GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD, "20");
+    assertThat(config.summaryOnlyThreshold()).isEqualTo(20);
+  }
+
+  @Test
+  public void publicationPlan() {
+    assertThat(config.isPublicationPlanEnabled()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_PUBLICATION_PLAN, "true");
+    assertThat(config.isPublicationPlanEnabled()).isTrue();
+  }
+
+  @Test
+  public void publicationSettings() {
+    settings.setProperty(GitHubPlugin.GITHUB_PUBLICATION_PLAN, "true");
+    settings.setProperty(GitHubPlugin.GITHUB_OAUTH, "secret");
+    settings.setProperty(GitHubPlugin.GITHUB_PULL_REQUEST, "12");
+    settings.setProperty(CoreProperties.LINKS_SOURCES, "scm:git:git@github.com:SonarSource/sonar-github.git");
+    settings.setProperty("sonar.host.url", "http://myserver");
+    settings.setProperty("sonar.userHome", "/home/ci/.sonar");
+
+    assertThat(config.publicationSettings()).containsOnly(
+      entry(GitHubPlugin.GITHUB_PULL_REQUEST, "12"),
+      entry(GitHubPlugin.GITHUB_REPO, "SonarSource/sonar-github"),
+      entry("sonar.userHome", "/home/ci/.sonar"));
+  }
+
+  @Test
+  public void summarizeExtraIssues() {
+    assertThat(config.isExtraIssuesSummaryEnabled()).isFalse();
+    settings.setProperty(GitHubPlugin.GITHUB_SUMMARIZE_EXTRA_ISSUES, "true");
+    assertThat(config.isExtraIssuesSummaryEnabled()).isTrue();
+  }
+
   @Test
   public void testProxyConfiguration() {
     System2 system2 = mock(System2.class);
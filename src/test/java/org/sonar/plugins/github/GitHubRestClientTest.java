@@ -0,0 +1,372 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class GitHubRestClientTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private HttpServer server;
+  private final Deque<Response> responses = new ArrayDeque<>();
+  private final List<String> requests = new ArrayList<>();
+  private final List<Long> delays = new ArrayList<>();
+  private GitHubRestClient client;
+
+  private static class Response {
+    private final int code;
+    private final String body;
+    private final String[] headers;
+
+    Response(int code, String body, String... headers) {
+      this.code = code;
+      this.body = body;
+      this.headers = headers;
+    }
+  }
+
+  @Before
+  public void prepare() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", this::handle);
+    server.start();
+    client = new GitHubRestClient("http://localhost:" + server.getAddress().getPort() + "/", "token", null,
+      new RetryPolicy(3, new Random(0), delays::add), CircuitBreaker.disabled());
+  }
+
+  @After
+  public void stop() {
+    server.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+    try (InputStream is = exchange.getRequestBody()) {
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        requestBody.write(buffer, 0, read);
+      }
+    }
+    requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + new String(requestBody.toByteArray(), StandardCharsets.UTF_8));
+    Response response = responses.poll();
+    for (int i = 0; i < response.headers.length; i += 2) {
+      exchange.getResponseHeaders().add(response.headers[i], response.headers[i + 1]);
+    }
+    byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(response.code, body.length == 0 ? -1 : body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  private static long readId(JsonParser parser) throws IOException {
+    long id = 0;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      parser.nextToken();
+      if ("id".equals(parser.getCurrentName())) {
+        id = parser.getLongValue();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return id;
+  }
+
+  @Test
+  public void retry_server_errors_with_backoff() throws IOException {
+    responses.add(new Response(502, ""));
+    responses.add(new Response(503, ""));
+    responses.add(new Response(200, "{\"id\":12}"));
+
+    assertThat(client.get("/repos/foo/bar/pulls/comments/12", GitHubRestClientTest::readId)).isEqualTo(12L);
+
+    assertThat(requests).hasSize(3);
+    assertThat(delays).hasSize(2);
+    assertThat(delays.get(0)).isLessThan(1_000L);
+    assertThat(delays.get(1)).isLessThan(2_000L);
+  }
+
+  @Test
+  public void honour_delay_requested_by_secondary_rate_limit() throws IOException {
+    responses.add(new Response(403, "{\"message\":\"You have exceeded a secondary rate limit\"}", "Retry-After", "7"));
+    responses.add(new Response(204, ""));
+
+    client.delete("/repos/foo/bar/pulls/comments/12");
+
+    assertThat(requests).containsExactly("DELETE /repos/foo/bar/pulls/comments/12 ", "DELETE /repos/foo/bar/pulls/comments/12 ");
+    assertThat(delays).containsExactly(7_000L);
+  }
+
+  @Test
+  public void limit_post_requests_with_shared_rate_limiter() throws IOException {
+    List<Long> waits = new ArrayList<>();
+    AtomicLong now = new AtomicLong(0L);
+    SharedRateLimiter rateLimiter = new SharedRateLimiter(1, temp.getRoot().toPath().resolve("github.bucket"), now::get, millis -> {
+      waits.add(millis);
+      now.addAndGet(millis);
+    });
+    client = new GitHubRestClient("http://localhost:" + server.getAddress().getPort() + "/", "token", null,
+      new RetryPolicy(3, new Random(0), delays::add), CircuitBreaker.disabled(), Tracer.disabled(), rateLimiter);
+    responses.add(new Response(200, "{\"id\":12}"));
+    responses.add(new Response(200, "{\"id\":12}"));
+    responses.add(new Response(204, ""));
+    responses.add(new Response(204, ""));
+
+    client.get("/repos/foo/bar/pulls/comments/12", GitHubRestClientTest::readId);
+    client.get("/repos/foo/bar/pulls/comments/12", GitHubRestClientTest::readId);
+    client.post("/repos/foo/bar/pulls/comments/12", "body", "comment");
+    assertThat(waits).isEmpty();
+
+    client.post("/repos/foo/bar/pulls/comments/12", "body", "comment");
+    assertThat(waits).containsExactly(60_000L);
+    assertThat(requests).hasSize(4);
+  }
+
+  @Test
+  public void record_rate_limit_remaining() throws IOException {
+    assertThat(client.rateLimitRemaining()).isNull();
+    responses.add(new Response(200, "{\"id\":12}", "X-RateLimit-Remaining", "4999"));
+    responses.add(new Response(200, "{\"id\":13}"));
+
+    client.get("/repos/foo/bar/pulls/comments/12", GitHubRestClientTest::readId);
+    assertThat(client.rateLimitRemaining()).isEqualTo(4999);
+    client.get("/repos/foo/bar/pulls/comments/13", GitHubRestClientTest::readId);
+    assertThat(client.rateLimitRemaining()).isEqualTo(4999);
+  }
+
+  @Test
+  public void do_not_retry_client_errors() throws IOException {
+    responses.add(new Response(403, "{\"message\":\"Must have push access\"}"));
+    try {
+      client.post("/repos/foo/bar/statuses/abc", "state", "success", "target_url", null);
+      fail();
+    } catch (GitHubRestClient.HttpResponseException e) {
+      assertThat(e.responseCode()).isEqualTo(403);
+    }
+    assertThat(requests).containsExactly("POST /repos/foo/bar/statuses/abc {\"state\":\"success\"}");
+    assertThat(delays).isEmpty();
+  }
+
+  @Test
+  public void give_up_after_max_attempts() throws IOException {
+    responses.add(new Response(500, ""));
+    responses.add(new Response(500, ""));
+    responses.add(new Response(500, ""));
+    try {
+      client.delete("/repos/foo/bar/pulls/comments/12");
+      fail();
+    } catch (GitHubRestClient.HttpResponseException e) {
+      assertThat(e.responseCode()).isEqualTo(500);
+    }
+    assertThat(requests).hasSize(3);
+  }
+
+  @Test
+  public void do_not_create_twice_when_previous_attempt_succeeded() throws IOException {
+    responses.add(new Response(502, ""));
+
+    long id = client.create("/repos/foo/bar/issues/1/comments", GitHubRestClientTest::readId, () -> 42L, "body", "comment", "position", 3);
+
+    assertThat(id).isEqualTo(42L);
+    assertThat(requests).containsExactly("POST /repos/foo/bar/issues/1/comments {\"body\":\"comment\",\"position\":3}");
+  }
+
+  @Test
+  public void create_again_when_previous_attempt_failed() throws IOException {
+    responses.add(new Response(502, ""));
+    responses.add(new Response(201, "{\"id\":43}"));
+
+    long id = client.create("/repos/foo/bar/issues/1/comments", GitHubRestClientTest::readId, () -> null, "body", "comment");
+
+    assertThat(id).isEqualTo(43L);
+    assertThat(requests).hasSize(2);
+  }
+
+  @Test
+  public void create_again_without_check_when_throttled() throws IOException {
+    responses.add(new Response(429, "", "Retry-After", "1"));
+    responses.add(new Response(201, "{\"id\":43}"));
+
+    long id = client.create("/repos/foo/bar/issues/1/comments", GitHubRestClientTest::readId, () -> {
+      throw new IllegalStateException("Throttled requests are not processed");
+    }, "body", "comment");
+
+    assertThat(id).isEqualTo(43L);
+    assertThat(delays).containsExactly(1_000L);
+  }
+
+  @Test
+  public void do_not_wait_after_write_deadline_before_retrying() throws IOException {
+    AtomicLong now = new AtomicLong(10_000L);
+    client = new GitHubRestClient("http://localhost:" + server.getAddress().getPort() + "/", "token", null,
+      new RetryPolicy(3, new Random(0), delays::add), CircuitBreaker.disabled(), Tracer.disabled(), SharedRateLimiter.unlimited(), now::get);
+    client.setWriteDeadline(10_300L);
+    responses.add(new Response(502, ""));
+    responses.add(new Response(204, ""));
+
+    client.delete("/repos/foo/bar/pulls/comments/12");
+
+    assertThat(requests).hasSize(2);
+    assertThat(delays).containsExactly(300L);
+  }
+
+  @Test
+  public void do_not_retry_after_write_deadline() throws IOException {
+    AtomicLong now = new AtomicLong(10_000L);
+    client = new GitHubRestClient("http://localhost:" + server.getAddress().getPort() + "/", "token", null,
+      new RetryPolicy(3, new Random(0), delays::add), CircuitBreaker.disabled(), Tracer.disabled(), SharedRateLimiter.unlimited(), now::get);
+    client.setWriteDeadline(10_000L);
+    responses.add(new Response(502, ""));
+    try {
+      client.delete("/repos/foo/bar/pulls/comments/12");
+      fail();
+    } catch (GitHubRestClient.HttpResponseException e) {
+      assertThat(e.responseCode()).isEqualTo(502);
+    }
+    assertThat(requests).hasSize(1);
+    assertThat(delays).isEmpty();
+  }
+
+  @Test
+  public void do_not_retry_unexpected_responses() throws IOException {
+    responses.add(new Response(200, "{\"message\":\"Not a list\"}"));
+    try {
+      client.getPage("/repos/foo/bar/pulls/1/files", GitHubRestClientTest::readId);
+      fail();
+    } catch (JsonParseException e) {
+      assertThat(e.getMessage()).startsWith("Expected a JSON array");
+    }
+    assertThat(requests).hasSize(1);
+    assertThat(delays).isEmpty();
+  }
+
+  @Test
+  public void do_not_retry_when_github_is_unhealthy() throws IOException {
+    client = new GitHubRestClient("http://localhost:" + server.getAddress().getPort() + "/", "token", null,
+      new RetryPolicy(3, new Random(0), delays::add), new CircuitBreaker(1, 0L, null, System::currentTimeMillis));
+    responses.add(new Response(502, ""));
+    try {
+      client.delete("/repos/foo/bar/pulls/comments/12");
+      fail();
+    } catch (GitHubRestClient.HttpResponseException e) {
+      assertThat(e.responseCode()).isEqualTo(502);
+    }
+    assertThat(requests).hasSize(1);
+  }
+
+  @Test
+  public void retry_after() {
+    assertThat(GitHubRestClient.retryAfterMs(null, "10", "100", 0L)).isNull();
+    assertThat(GitHubRestClient.retryAfterMs("30", null, null, 0L)).isEqualTo(30_000L);
+    assertThat(GitHubRestClient.retryAfterMs(null, "0", "100", 40_000L)).isEqualTo(60_000L);
+    assertThat(GitHubRestClient.retryAfterMs("Wed, 21 Oct 2015 07:28:00 GMT", null, null, 0L)).isNull();
+  }
+
+  @Test
+  public void load_following_pages_concurrently_and_consume_them_in_order() throws IOException {
+    String url = "http://localhost:" + server.getAddress().getPort() + "/repos/foo/bar/pulls/1/files";
+    List<String> pageRequests = Collections.synchronizedList(new ArrayList<>());
+    server.createContext("/repos/foo/bar/pulls/1/files", exchange -> {
+      String query = exchange.getRequestURI().getQuery();
+      pageRequests.add(query);
+      Matcher page = Pattern.compile("(?:^|&)page=([0-9]+)").matcher(query);
+      int number = page.find() ? Integer.parseInt(page.group(1)) : 1;
+      if (number == 1) {
+        exchange.getResponseHeaders().add("Link", "<" + url + "?per_page=2&page=2>; rel=\"next\", <" + url + "?per_page=2&page=5>; rel=\"last\"");
+      }
+      byte[] body = ("[{\"id\":" + (2 * number - 1) + "},{\"id\":" + (2 * number) + "}]").getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    });
+
+    List<Long> ids = new ArrayList<>();
+    client.forEachItem("/repos/foo/bar/pulls/1/files?per_page=2", GitHubRestClientTest::readId, ids::add);
+
+    assertThat(ids).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+    assertThat(pageRequests).hasSize(5);
+    assertThat(pageRequests).contains("per_page=2", "per_page=2&page=2", "per_page=2&page=5");
+  }
+
+  @Test
+  public void follow_next_links_when_last_page_is_unknown() throws IOException {
+    responses.add(new Response(200, "[{\"id\":1}]", "Link", "</repos/foo/bar/pulls/1/comments?page=2>; rel=\"next\""));
+    responses.add(new Response(200, "[{\"id\":2}]"));
+
+    List<Long> ids = new ArrayList<>();
+    client.forEachItem("/repos/foo/bar/pulls/1/comments", GitHubRestClientTest::readId, ids::add);
+
+    assertThat(ids).containsExactly(1L, 2L);
+    assertThat(requests).hasSize(2);
+  }
+
+  @Test
+  public void stop_when_first_page_is_the_last_one() throws IOException {
+    responses.add(new Response(200, "[{\"id\":1}]", "Link",
+      "</repos/foo/bar/pulls/1/comments?page=2>; rel=\"next\", </repos/foo/bar/pulls/1/comments?page=1>; rel=\"last\""));
+
+    List<Long> ids = new ArrayList<>();
+    client.forEachItem("/repos/foo/bar/pulls/1/comments", GitHubRestClientTest::readId, ids::add);
+
+    assertThat(ids).containsExactly(1L);
+    assertThat(requests).hasSize(1);
+  }
+
+  @Test
+  public void following_page_urls() {
+    assertThat(GitHubRestClient.followingPageUrls(new GitHubRestClient.Page<>(Collections.emptyList(), null))).isNull();
+    assertThat(GitHubRestClient.followingPageUrls(new GitHubRestClient.Page<>(Collections.emptyList(), "https://api/files?page=2",
+      "https://api/files?page=3&per_page=100")))
+        .containsExactly("https://api/files?page=2&per_page=100", "https://api/files?page=3&per_page=100");
+    assertThat(GitHubRestClient.followingPageUrls(new GitHubRestClient.Page<>(Collections.emptyList(), "https://api/files?page=2",
+      "https://api/files?page=1"))).isEmpty();
+  }
+}
@@ -23,6 +23,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.CheckForNull;
 import org.junit.Before;
 import org.junit.Test;
@@ -333,4 +334,54 @@ public class GlobalReportTest {
 
     assertThat(formattedGlobalReport).isEqualTo(desiredMarkdown);
   }
+
+  @Test
+  public void shouldSummarizeExtraIssuesWhenLimitReached() {
+    GlobalReport globalReport = new GlobalReport(new MarkDownUtils(settings), false, 2, true);
+    globalReport.process(newMockedIssue("component0", null, null, Severity.MAJOR, true, "Issue0", "rule0"), null, false);
+    globalReport.process(newMockedIssue("component1", null, null, Severity.MAJOR, true, "Issue1", "rule0"), null, false);
+    globalReport.process(newMockedIssue("component1", null, null, Severity.MAJOR, true, "Issue2", "rule1"), null, false);
+
+    String desiredMarkdown = "SonarQube analysis reported 3 issues\n" +
+      "* ![MAJOR][MAJOR] 3 major\n" +
+      "\n#### Top 2 issues\n\n" +
+      "1. ![MAJOR][MAJOR] component0: Issue0 [![rule](https://sonarsource.github.io/sonar-github/rule.png)](http://myserver/coding_rules#rule_key=repo%3Arule0)\n" +
+      "1. ![MAJOR][MAJOR] component1: Issue1 [![rule](https://sonarsource.github.io/sonar-github/rule.png)](http://myserver/coding_rules#rule_key=repo%3Arule0)\n" +
+      "\n#### Top files\n\n" +
+      "| File | Extra issues |\n" +
+      "| --- | ---: |\n" +
+      "| `component1` | 2 |\n" +
+      "| `component0` | 1 |\n" +
+      "\n#### Top rules\n\n" +
+      "| Rule | Extra issues |\n" +
+      "| --- | ---: |\n" +
+      "| `repo:rule0` | 2 |\n" +
+      "| `repo:rule1` | 1 |\n" +
+      "\n[MAJOR]: https://sonarsource.github.io/sonar-github/severity-major.png 'Severity: MAJOR'";
+
+    assertThat(globalReport.formatForMarkdown()).isEqualTo(desiredMarkdown);
+  }
+
+  @Test
+  public void shouldNotSummarizeExtraIssuesBelowLimit() {
+    GlobalReport globalReport = new GlobalReport(new MarkDownUtils(settings), false, 2, true);
+    globalReport.process(newMockedIssue("component0", null, null, Severity.MAJOR, true, "Issue0", "rule0"), null, false);
+
+    assertThat(globalReport.formatForMarkdown()).doesNotContain("Top files").doesNotContain("Top rules");
+  }
+
+  @Test
+  public void shouldOnlyComputeUrlOfListedExtraIssues() {
+    GlobalReport globalReport = new GlobalReport(new MarkDownUtils(settings), false, 2);
+    AtomicInteger urls = new AtomicInteger();
+    for (int i = 0; i < 5; i++) {
+      globalReport.processExtraIssue(newMockedIssue("component", null, null, Severity.MAJOR, true, "Issue" + i, "rule"), () -> {
+        urls.incrementAndGet();
+        return GITHUB_URL;
+      });
+    }
+
+    assertThat(urls.get()).isEqualTo(2);
+    assertThat(globalReport.formatForMarkdown()).startsWith("SonarQube analysis reported 5 issues\n");
+  }
 }
@@ -0,0 +1,58 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocalFilesTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void hash_keys_in_file_name() {
+    String name = LocalFiles.hashedName(".journal", "SonarSource/sonar-github", "12");
+
+    assertThat(name).matches("[0-9a-f]{64}\\.journal");
+    assertThat(LocalFiles.hashedName(".journal", "SonarSource/sonar-github", "12")).isEqualTo(name);
+    assertThat(LocalFiles.hashedName(".journal", "SonarSource_sonar-github", "12")).isNotEqualTo(name);
+    assertThat(LocalFiles.hashedName(".journal", "SonarSource/sonar-github", "1", "2")).isNotEqualTo(name);
+  }
+
+  @Test
+  public void replace_target() throws Exception {
+    Path dir = temp.newFolder().toPath();
+    Path source = Files.write(dir.resolve("source.tmp"), Collections.singletonList("new"), StandardCharsets.UTF_8);
+    Path target = Files.write(dir.resolve("target"), Collections.singletonList("old"), StandardCharsets.UTF_8);
+
+    LocalFiles.move(source, target);
+
+    assertThat(Files.exists(source)).isFalse();
+    assertThat(Files.readAllLines(target, StandardCharsets.UTF_8)).containsExactly("new");
+  }
+}
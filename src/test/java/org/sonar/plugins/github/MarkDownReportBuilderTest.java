@@ -27,7 +27,10 @@ import org.sonar.api.batch.rule.Severity;
 import org.sonar.api.rule.RuleKey;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.when;
 
 public class MarkDownReportBuilderTest {
@@ -127,4 +130,26 @@ public class MarkDownReportBuilderTest {
       + "\n"
       + "[BLOCKER]: https://sonarsource.github.io/sonar-github/severity-blocker.png 'Severity: BLOCKER'");
   }
+
+  @Test
+  public void should_render_extra_issues_when_registered() throws MalformedURLException {
+    MarkDownUtils markDownUtils = mock(MarkDownUtils.class);
+    when(markDownUtils.globalIssue(anyString(), anyString(), any(URL.class), anyString())).thenReturn("rendered");
+    ReportBuilder builder = new MarkDownReportBuilder(markDownUtils);
+
+    PostJobIssue postJobIssue = mock(PostJobIssue.class);
+    when(postJobIssue.severity()).thenReturn(Severity.MAJOR);
+    when(postJobIssue.message()).thenReturn("message");
+    when(postJobIssue.componentKey()).thenReturn("component");
+    when(postJobIssue.ruleKey()).thenReturn(RuleKey.of("repo", "rule"));
+    builder.registerExtraIssue(postJobIssue, new URL("http://github.com/dummy"));
+    // the issue is not used anymore once registered
+    reset(postJobIssue);
+    builder.appendExtraIssues();
+
+    assertThat(builder.toString()).isEqualTo("\n"
+      + "1. ![MAJOR][MAJOR] rendered\n"
+      + "\n"
+      + "[MAJOR]: https://sonarsource.github.io/sonar-github/severity-major.png 'Severity: MAJOR'");
+  }
 }
@@ -0,0 +1,100 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.util.Locale;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.config.internal.MapSettings;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MarkDownUtilsTest {
+
+  private MarkDownUtils markDownUtils;
+
+  @Before
+  public void prepare() {
+    MapSettings settings = new MapSettings();
+    settings.setProperty(CoreProperties.SERVER_BASE_URL, "http://myserver");
+    markDownUtils = new MarkDownUtils(settings);
+  }
+
+  @Test
+  public void inline_issue() {
+    assertThat(markDownUtils.inlineIssue(Severity.MAJOR, "Remove this", "squid:S1234")).isEqualTo(
+      "![MAJOR](https://sonarsource.github.io/sonar-github/severity-major.png 'Severity: MAJOR') Remove this "
+        + "[![rule](https://sonarsource.github.io/sonar-github/rule.png)](http://myserver/coding_rules#rule_key=squid%3AS1234)");
+  }
+
+  @Test
+  public void append_inline_issues_to_shared_builder() {
+    StringBuilder sb = new StringBuilder();
+    markDownUtils.appendInlineIssue(sb, Severity.BLOCKER, "msg1", "repo:rule1").append("\n");
+    markDownUtils.appendInlineIssue(sb, Severity.INFO, "msg2", "repo:rule2").append("\n");
+    assertThat(sb.toString()).isEqualTo(markDownUtils.inlineIssue(Severity.BLOCKER, "msg1", "repo:rule1") + "\n"
+      + markDownUtils.inlineIssue(Severity.INFO, "msg2", "repo:rule2") + "\n");
+  }
+
+  @Test
+  public void precomputed_fragments_are_identical_to_formatted_ones() {
+    for (Severity severity : Severity.values()) {
+      assertThat(MarkDownUtils.formatImageLink(severity)).isEqualTo(legacyImageLink(severity));
+    }
+  }
+
+  @Test
+  public void cached_rule_links_are_identical_to_computed_ones() {
+    // more rule keys than the cache can hold, twice, to go through eviction
+    int ruleCount = MarkDownUtils.MAX_CACHED_RULE_LINKS * 3 / 2;
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < ruleCount; i++) {
+        String ruleKey = "repo:rule " + i;
+        assertThat(markDownUtils.getRuleLink(ruleKey)).isEqualTo(legacyRuleLink(ruleKey));
+      }
+    }
+  }
+
+  @Test
+  public void large_volume_of_inline_issues_is_rendered_identically() {
+    Severity[] severities = Severity.values();
+    StringBuilder actual = new StringBuilder();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      Severity severity = severities[i % severities.length];
+      String ruleKey = "repo:rule" + (i % 200);
+      String message = "Message " + i;
+      markDownUtils.appendInlineIssue(actual, severity, message, ruleKey).append("\n");
+      expected.append(legacyImageLink(severity)).append(" ").append(message).append(" ").append(legacyRuleLink(ruleKey)).append("\n");
+    }
+    assertThat(actual.toString()).isEqualTo(expected.toString());
+  }
+
+  private static String legacyImageLink(Severity severity) {
+    String imageUrl = "https://sonarsource.github.io/sonar-github/severity-" + severity.name().toLowerCase(Locale.ENGLISH) + ".png";
+    return String.format("![%s](%s 'Severity: %s')", severity.name(), imageUrl, severity.name());
+  }
+
+  private static String legacyRuleLink(String ruleKey) {
+    return "[![rule](https://sonarsource.github.io/sonar-github/rule.png)](http://myserver/coding_rules#rule_key=" + MarkDownUtils.encodeForUrlParam(ruleKey) + ")";
+  }
+}
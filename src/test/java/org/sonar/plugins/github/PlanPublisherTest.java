@@ -0,0 +1,120 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.net.URL;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.kohsuke.github.GHCommitState;
+import org.sonar.api.utils.System2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PlanPublisherTest {
+
+  private PullRequestFacade facade;
+  private PlanPublisher publisher;
+  private PublicationPlan plan;
+
+  @Before
+  public void prepare() {
+    facade = mock(PullRequestFacade.class);
+    publisher = new PlanPublisher(facade);
+    plan = new PublicationPlan(Collections.<String, String>emptyMap(), "abc123");
+    plan.addReviewComment("src/Foo.php", 1, "body1");
+    plan.addReviewComment("src/Foo.php", 2, "body2");
+    plan.setGlobalComment("markup");
+    plan.setStatus(GHCommitState.ERROR, "SonarQube reported 2 issues, with 2 blockers");
+  }
+
+  private static WriteBudget unlimited() {
+    return new WriteBudget(Integer.MAX_VALUE, Long.MAX_VALUE, System2.INSTANCE);
+  }
+
+  @Test
+  public void publish_plan() {
+    when(facade.headSha()).thenReturn("abc123");
+    when(facade.hasFileLine("src/Foo.php", 1)).thenReturn(true);
+
+    assertThat(publisher.apply(plan, unlimited())).isTrue();
+
+    verify(facade).createOrUpdateReviewComment("src/Foo.php", 1, "body1");
+    verify(facade, never()).createOrUpdateReviewComment(eq("src/Foo.php"), eq(2), anyString());
+    verify(facade).deleteOutdatedComments(any(WriteBudget.class));
+    verify(facade).createOrUpdateGlobalComments(eq("markup\nNote: 1 issue could not be reported as line comments when this review was published, "
+      + "they are listed here:\n\n1. src/Foo.php: body2\n"), any(WriteBudget.class));
+    verify(facade).writePublicationJournal();
+    verify(facade).createOrUpdateSonarQubeStatus(GHCommitState.ERROR, "SonarQube reported 2 issues, with 2 blockers");
+  }
+
+  @Test
+  public void limit_write_operations() throws Exception {
+    when(facade.headSha()).thenReturn("abc123");
+    when(facade.hasFileLine(eq("src/Foo.php"), anyInt())).thenReturn(true);
+    when(facade.getGithubUrl("src/Foo.php", 2)).thenReturn(new URL("https://github.com/foo/bar/blob/abc123/src/Foo.php#L2"));
+    plan.addReviewComment("src/Foo.php", 3, "body3\nbody4\n");
+    WriteBudget writeBudget = new WriteBudget(1, Long.MAX_VALUE, System2.INSTANCE);
+
+    assertThat(publisher.apply(plan, writeBudget)).isTrue();
+
+    verify(facade).createOrUpdateReviewComment("src/Foo.php", 1, "body1");
+    verify(facade, never()).createOrUpdateReviewComment(eq("src/Foo.php"), eq(2), anyString());
+    verify(facade).deleteOutdatedComments(writeBudget);
+    assertThat(writeBudget.remaining()).isEqualTo(0);
+    // Issues of the skipped comments are listed in the global comment
+    verify(facade).createOrUpdateGlobalComments("markup\nNote: 3 issues could not be reported as line comments when this review was published, "
+      + "they are listed here:\n\n"
+      + "1. [Foo.php](https://github.com/foo/bar/blob/abc123/src/Foo.php#L2): body2\n"
+      + "1. src/Foo.php: body3\n"
+      + "1. src/Foo.php: body4\n", writeBudget);
+  }
+
+  @Test
+  public void only_publish_status_of_outdated_plan_on_its_commit() {
+    when(facade.headSha()).thenReturn("def456");
+
+    assertThat(publisher.apply(plan, unlimited())).isFalse();
+
+    verify(facade, never()).createOrUpdateReviewComment(anyString(), anyInt(), anyString());
+    verify(facade, never()).createOrUpdateGlobalComments(anyString(), any(WriteBudget.class));
+    verify(facade, never()).createOrUpdateSonarQubeStatus(any(GHCommitState.class), anyString());
+    verify(facade).createOrUpdateSonarQubeStatus("abc123", GHCommitState.ERROR, "SonarQube reported 2 issues, with 2 blockers");
+  }
+
+  @Test
+  public void leave_status_pending_when_publication_fails() {
+    when(facade.headSha()).thenReturn("abc123");
+    doThrow(new IllegalStateException("Unable to read the pull request comments")).when(facade).createOrUpdateGlobalComments(anyString(), any(WriteBudget.class));
+
+    assertThat(publisher.apply(plan, unlimited())).isFalse();
+
+    verify(facade, never()).createOrUpdateSonarQubeStatus(any(GHCommitState.class), anyString());
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PositionIndexCacheTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private Path dir;
+  private PositionIndexCache cache;
+
+  @Before
+  public void prepare() throws Exception {
+    dir = temp.newFolder().toPath().resolve("positions");
+    cache = new PositionIndexCache(dir, 2);
+  }
+
+  @Test
+  public void write_and_read_file_positions() {
+    Map<Integer, Integer> positions = new HashMap<>();
+    positions.put(12, 3);
+    positions.put(13, 4);
+    Map<String, CommentableFile> files = new HashMap<>();
+    files.put("src/main/with space/Foo.java", new PullRequestFacade.FilePositions("src/main/with space/Foo.java", positions));
+    files.put("Bar.java", new PullRequestFacade.FilePositions("Bar.java", new HashMap<>()));
+    cache.write("SonarSource/sonar-github", "base1", "abc123", "position", files);
+
+    Map<String, CommentableFile> read = cache.read("SonarSource/sonar-github", "base1", "abc123", "position");
+
+    assertThat(read).hasSize(2);
+    CommentableFile foo = read.get("src/main/with space/Foo.java");
+    assertThat(foo.location(12)).isEqualTo(3);
+    assertThat(foo.location(13)).isEqualTo(4);
+    assertThat(foo.location(14)).isNull();
+    assertThat(read.get("Bar.java").location(1)).isNull();
+  }
+
+  @Test
+  public void write_and_read_changed_line_ranges() {
+    cache.write("SonarSource/sonar-github", "base1", "abc123", "line",
+      Collections.<String, CommentableFile>singletonMap("Foo.java", new ChangedLineRanges("Foo.java", new int[] {3, 5, 10, 10})));
+
+    CommentableFile foo = cache.read("SonarSource/sonar-github", "base1", "abc123", "line").get("Foo.java");
+
+    assertThat(foo.location(4)).isEqualTo(4);
+    assertThat(foo.location(10)).isEqualTo(10);
+    assertThat(foo.location(7)).isNull();
+  }
+
+  @Test
+  public void ignore_other_commits_and_variants() {
+    cache.write("SonarSource/sonar-github", "base1", "abc123", "position", new HashMap<>());
+
+    assertThat(cache.read("SonarSource/sonar-github", "base1", "abc123", "position")).isEmpty();
+    assertThat(cache.read("SonarSource/sonar-github", "base2", "abc123", "position")).isNull();
+    assertThat(cache.read("SonarSource/sonar-github", "base1", "def456", "position")).isNull();
+    assertThat(cache.read("SonarSource/sonar-github", "base1", "abc123", "line")).isNull();
+    assertThat(cache.read("SonarSource/other", "base1", "abc123", "position")).isNull();
+  }
+
+  @Test
+  public void ignore_unreadable_entry() throws Exception {
+    Path file = cache.file("SonarSource/sonar-github", "base1", "abc123", "position");
+    Files.createDirectories(dir);
+    Files.write(file, new byte[] {0, 0, 0, 1, 0, 0, 0, 5});
+
+    assertThat(cache.read("SonarSource/sonar-github", "base1", "abc123", "position")).isNull();
+  }
+
+  @Test
+  public void evict_least_recently_used_entries() throws Exception {
+    cache.write("SonarSource/sonar-github", "base", "sha1", "position", new HashMap<>());
+    cache.write("SonarSource/sonar-github", "base", "sha2", "position", new HashMap<>());
+    Files.setLastModifiedTime(cache.file("SonarSource/sonar-github", "base", "sha1", "position"), FileTime.fromMillis(1000L));
+    Files.setLastModifiedTime(cache.file("SonarSource/sonar-github", "base", "sha2", "position"), FileTime.fromMillis(2000L));
+    // reading an entry makes it the most recently used one
+    assertThat(cache.read("SonarSource/sonar-github", "base", "sha1", "position")).isNotNull();
+
+    cache.write("SonarSource/sonar-github", "base", "sha3", "position", new HashMap<>());
+
+    assertThat(cache.read("SonarSource/sonar-github", "base", "sha1", "position")).isNotNull();
+    assertThat(cache.read("SonarSource/sonar-github", "base", "sha2", "position")).isNull();
+    assertThat(cache.read("SonarSource/sonar-github", "base", "sha3", "position")).isNotNull();
+  }
+}
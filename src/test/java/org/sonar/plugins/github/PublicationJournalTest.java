@@ -0,0 +1,107 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PublicationJournalTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private PublicationJournal journal;
+
+  @Before
+  public void prepare() throws Exception {
+    journal = new PublicationJournal(new File(temp.newFolder(), "journal"));
+  }
+
+  @Test
+  public void write_and_read() {
+    journal.write("SonarSource/sonar-github", 12, new PublicationJournal.Entry("abc123", "base1", 1000L, "position",
+      Arrays.asList(new PublishedComment(1L, "src/main/with space/Foo.java", 3, PublishedComment.hash("body1")),
+        new PublishedComment(2L, "Bar.java", 10, PublishedComment.hash("body2"))),
+      Collections.singletonList(new PublishedComment(3L, null, 0, PublishedComment.hash("global")))));
+
+    PublicationJournal.Entry entry = journal.read("SonarSource/sonar-github", 12);
+
+    assertThat(entry.headSha()).isEqualTo("abc123");
+    assertThat(entry.baseSha()).isEqualTo("base1");
+    assertThat(entry.writtenAt()).isEqualTo(1000L);
+    assertThat(entry.location()).isEqualTo("position");
+    assertThat(entry.reviewComments()).hasSize(2);
+    PublishedComment first = entry.reviewComments().get(0);
+    assertThat(first.id()).isEqualTo(1L);
+    assertThat(first.path()).isEqualTo("src/main/with space/Foo.java");
+    assertThat(first.position()).isEqualTo(3);
+    assertThat(first.hasBody("body1")).isTrue();
+    assertThat(first.hasBody("body2")).isFalse();
+    assertThat(entry.globalComments()).hasSize(1);
+    assertThat(entry.globalComments().get(0).id()).isEqualTo(3L);
+    assertThat(entry.globalComments().get(0).path()).isNull();
+  }
+
+  @Test
+  public void ignore_journal_of_other_pull_request() {
+    journal.write("SonarSource/sonar-github", 12, new PublicationJournal.Entry("abc123", "base1", 1000L, "position",
+      Collections.<PublishedComment>emptyList(), Collections.<PublishedComment>emptyList()));
+
+    assertThat(journal.read("SonarSource/sonar-github", 13)).isNull();
+    assertThat(journal.read("SonarSource/other", 12)).isNull();
+    assertThat(journal.read("SonarSource/sonar-github", 12)).isNotNull();
+  }
+
+  @Test
+  public void ignore_unreadable_journal() throws Exception {
+    File file = journal.file("SonarSource/sonar-github", 12).toFile();
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), "v2\nsha\tabc123\nbase\tbase1\ntime\tfoo\nlocation\tposition\n".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(journal.read("SonarSource/sonar-github", 12)).isNull();
+  }
+
+  @Test
+  public void ignore_journal_of_previous_version() throws Exception {
+    File file = journal.file("SonarSource/sonar-github", 12).toFile();
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), "v1\nsha\tabc123\nbase\tbase1\ntime\t1000\nglobal\t3\t1f\n".getBytes(StandardCharsets.UTF_8));
+
+    assertThat(journal.read("SonarSource/sonar-github", 12)).isNull();
+  }
+
+  @Test
+  public void delete() {
+    journal.write("SonarSource/sonar-github", 12, new PublicationJournal.Entry("abc123", "base1", 1000L, "position",
+      Collections.<PublishedComment>emptyList(), Collections.<PublishedComment>emptyList()));
+    journal.delete("SonarSource/sonar-github", 12);
+
+    assertThat(journal.read("SonarSource/sonar-github", 12)).isNull();
+  }
+}
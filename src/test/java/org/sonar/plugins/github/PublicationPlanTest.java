@@ -0,0 +1,91 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kohsuke.github.GHCommitState;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.fail;
+
+public class PublicationPlanTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void write_and_read() throws Exception {
+    PublicationPlan plan = new PublicationPlan(Collections.singletonMap(GitHubPlugin.GITHUB_REPO, "SonarSource/sonar-github"), "abc123");
+    plan.addReviewComment("src/main/with space/Foo.java", 3, "line1\nline2\twith \\ backslash\r\n");
+    plan.addReviewComment("Bar.java", 10, "body2");
+    plan.setGlobalComment("global\nmarkup");
+    plan.setStatus(GHCommitState.ERROR, "SonarQube reported 2 issues, with 1 blocker");
+    File file = new File(temp.newFolder(), PublicationPlan.FILE_NAME);
+    plan.write(file);
+
+    PublicationPlan read = PublicationPlan.read(file);
+
+    assertThat(read.settings()).containsOnly(entry(GitHubPlugin.GITHUB_REPO, "SonarSource/sonar-github"));
+    assertThat(read.headSha()).isEqualTo("abc123");
+    assertThat(read.reviewComments()).hasSize(2);
+    PublicationPlan.ReviewComment first = read.reviewComments().get(0);
+    assertThat(first.path()).isEqualTo("src/main/with space/Foo.java");
+    assertThat(first.line()).isEqualTo(3);
+    assertThat(first.body()).isEqualTo("line1\nline2\twith \\ backslash\r\n");
+    assertThat(read.globalComment()).isEqualTo("global\nmarkup");
+    assertThat(read.status()).isEqualTo(GHCommitState.ERROR);
+    assertThat(read.statusDescription()).isEqualTo("SonarQube reported 2 issues, with 1 blocker");
+  }
+
+  @Test
+  public void write_and_read_without_global_comment() throws Exception {
+    PublicationPlan plan = new PublicationPlan(Collections.<String, String>emptyMap(), "abc123");
+    plan.setStatus(GHCommitState.SUCCESS, "SonarQube reported no issues");
+    File file = new File(temp.newFolder(), PublicationPlan.FILE_NAME);
+    plan.write(file);
+
+    PublicationPlan read = PublicationPlan.read(file);
+
+    assertThat(read.globalComment()).isNull();
+    assertThat(read.reviewComments()).isEmpty();
+    assertThat(read.status()).isEqualTo(GHCommitState.SUCCESS);
+  }
+
+  @Test
+  public void fail_to_read_plan_of_unsupported_version() throws Exception {
+    File file = temp.newFile();
+    Files.write(file.toPath(), "v0\nsha\tabc123\n".getBytes(StandardCharsets.UTF_8));
+
+    try {
+      PublicationPlan.read(file);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Unsupported version of publication plan");
+    }
+  }
+}
@@ -19,30 +19,55 @@
  */
 package org.sonar.plugins.github;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
 import org.assertj.core.data.MapEntry;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
-import org.kohsuke.github.GHCommitStatus;
+import org.kohsuke.github.GHCommitState;
 import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.PagedIterable;
-import org.mockito.Mockito;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.InputPath;
 import org.sonar.api.batch.fs.internal.DefaultInputFile;
 import org.sonar.api.batch.fs.internal.TestInputFileBuilder;
+import org.sonar.api.utils.System2;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
 
@@ -67,6 +92,9 @@ public class PullRequestFacadeTest {
     InputPath inputPath = mock(InputPath.class);
     when(inputPath.file()).thenReturn(new File(gitBasedir, "src/main/with space/Foo.java"));
     assertThat(facade.getGithubUrl(inputPath, 10).toString()).isEqualTo("https://github.com/SonarSource/sonar-java/blob/abc123/src/main/with%20space/Foo.java#L10");
+    assertThat(facade.getGithubUrl(inputPath, null).toString()).isEqualTo("https://github.com/SonarSource/sonar-java/blob/abc123/src/main/with%20space/Foo.java#");
+    // the URL of the head of the pull request is only resolved once
+    verify(ghRepo).getHtmlUrl();
   }
 
   @Test
@@ -105,32 +133,154 @@ public class PullRequestFacadeTest {
   }
 
   @Test
-  public void testEmptyGetCommitStatusForContext() throws IOException {
+  public void testReadFilePositionsFromStreamedFileDetails() throws IOException {
+    JsonParser parser = GitHubRestClient.JSON_FACTORY.createParser("{\"sha\":\"abc\",\"filename\":\"src/Foo.java\",\"status\":\"modified\","
+      + "\"additions\":1,\"patch\":\"@@ -1,2 +1,3 @@\\n a\\n+b\\n c\",\"links\":{\"self\":\"foo\"}}");
+    parser.nextToken();
+
+    PullRequestFacade.FilePositions file = PullRequestFacade.readFilePositions(parser, true);
+
+    assertThat(file.path()).isEqualTo("src/Foo.java");
+    assertThat(file.patchLocationMapping()).containsOnly(MapEntry.entry(1, 1), MapEntry.entry(2, 2), MapEntry.entry(3, 3));
+    assertThat(parser.getCurrentToken()).isEqualTo(JsonToken.END_OBJECT);
+  }
+
+  @Test
+  public void testSkipPatchOfReusedFile() throws IOException {
+    JsonParser parser = GitHubRestClient.JSON_FACTORY.createParser("{\"sha\":\"abc\",\"filename\":\"src/Foo.java\",\"status\":\"modified\","
+      + "\"additions\":1,\"patch\":\"@@ -1,2 +1,3 @@\\n a\\n+b\\n c\",\"links\":{\"self\":\"foo\"}}");
+    parser.nextToken();
+
+    PullRequestFacade.FilePositions file = PullRequestFacade.readFilePositions(parser, path -> !"src/Foo.java".equals(path));
+
+    assertThat(file.path()).isEqualTo("src/Foo.java");
+    assertThat(file.patchLocationMapping()).isEmpty();
+    assertThat(parser.getCurrentToken()).isEqualTo(JsonToken.END_OBJECT);
+  }
+
+  @Test
+  public void testReadFilePositionsWithoutPatch() throws IOException {
+    JsonParser parser = GitHubRestClient.JSON_FACTORY.createParser("{\"filename\":\"image.png\",\"status\":\"added\"}");
+    parser.nextToken();
+
+    PullRequestFacade.FilePositions file = PullRequestFacade.readFilePositions(parser, true);
+
+    assertThat(file.path()).isEqualTo("image.png");
+    assertThat(file.patchLocationMapping()).isEmpty();
+  }
+
+  @Test
+  public void testReadCommitStatus() throws IOException {
+    JsonParser parser = GitHubRestClient.JSON_FACTORY.createParser("{\"state\":\"failure\",\"statuses\":["
+      + "{\"state\":\"failure\",\"description\":\"Build failed\",\"target_url\":null,\"context\":\"ci\",\"creator\":{\"login\":\"bot\"}},"
+      + "{\"state\":\"success\",\"description\":\"SonarQube reported no issues\",\"target_url\":\"http://ci/42\",\"context\":\"sonarqube\"}],"
+      + "\"sha\":\"abc123\",\"total_count\":2}");
+    parser.nextToken();
+
+    CommitStatus status = PullRequestFacade.readCommitStatus(parser, PullRequestFacade.COMMIT_CONTEXT);
+
+    assertThat(status.state()).isEqualTo(GHCommitState.SUCCESS);
+    assertThat(status.description()).isEqualTo("SonarQube reported no issues");
+    assertThat(status.targetUrl()).isEqualTo("http://ci/42");
+    assertThat(parser.nextToken()).isNull();
+  }
+
+  @Test
+  public void testReadCommitStatusWithoutSonarQubeContext() throws IOException {
+    JsonParser parser = GitHubRestClient.JSON_FACTORY.createParser("{\"state\":\"pending\",\"statuses\":[],\"sha\":\"abc123\"}");
+    parser.nextToken();
+
+    assertThat(PullRequestFacade.readCommitStatus(parser, PullRequestFacade.COMMIT_CONTEXT)).isNull();
+  }
+
+  @Test
+  public void testSkipRedundantCommitStatus() throws IOException {
     PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
     GHRepository ghRepo = mock(GHRepository.class);
-    PagedIterable<GHCommitStatus> ghCommitStatuses = Mockito.mock(PagedIterable.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
     GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
-    when(pr.getRepository()).thenReturn(ghRepo);
     when(pr.getHead().getSha()).thenReturn("abc123");
-    when(ghRepo.listCommitStatuses(pr.getHead().getSha())).thenReturn(ghCommitStatuses);
-    assertThat(facade.getCommitStatusForContext(pr, PullRequestFacade.COMMIT_CONTEXT)).isNull();
+    facade.setPr(pr);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    when(restClient.get(eq("/repos/SonarSource/sonar-java/commits/abc123/status?per_page=100"), any(GitHubRestClient.ItemReader.class)))
+      .thenReturn(new CommitStatus(GHCommitState.SUCCESS, "SonarQube reported no issues", "http://ci/42"));
+
+    facade.createOrUpdateSonarQubeStatus(GHCommitState.SUCCESS, "SonarQube reported no issues");
+    verify(restClient, never()).post(anyString(), Matchers.<String>anyVararg());
+
+    facade.createOrUpdateSonarQubeStatus(GHCommitState.PENDING, "SonarQube analysis in progress");
+    facade.createOrUpdateSonarQubeStatus(GHCommitState.PENDING, "SonarQube analysis in progress");
+    verify(restClient).post("/repos/SonarSource/sonar-java/statuses/abc123", "state", "pending", "target_url", "http://ci/42",
+      "description", "SonarQube analysis in progress", "context", "sonarqube");
+
+    facade.createOrUpdateSonarQubeStatus(GHCommitState.SUCCESS, "SonarQube reported no issues");
+    verify(restClient).post("/repos/SonarSource/sonar-java/statuses/abc123", "state", "success", "target_url", "http://ci/42",
+      "description", "SonarQube reported no issues", "context", "sonarqube");
+    // The latest status is only loaded once
+    verify(restClient).get(anyString(), any(GitHubRestClient.ItemReader.class));
+    verifyNoMoreInteractions(restClient);
   }
 
   @Test
-  public void testGetCommitStatusForContextWithOneCorrectStatus() throws IOException {
+  public void testNoStatusUpdateWhenSameCommitIsAnalyzedAgain() throws IOException {
     PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
     GHRepository ghRepo = mock(GHRepository.class);
-    PagedIterable<GHCommitStatus> ghCommitStatuses = Mockito.mock(PagedIterable.class);
-    List<GHCommitStatus> ghCommitStatusesList = new ArrayList<>();
-    GHCommitStatus ghCommitStatusGHPRHContext = Mockito.mock(GHCommitStatus.class);
-    ghCommitStatusesList.add(ghCommitStatusGHPRHContext);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
     GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
-    when(pr.getRepository()).thenReturn(ghRepo);
     when(pr.getHead().getSha()).thenReturn("abc123");
-    when(ghRepo.listCommitStatuses(pr.getHead().getSha())).thenReturn(ghCommitStatuses);
-    when(ghCommitStatuses.asList()).thenReturn(ghCommitStatusesList);
-    when(ghCommitStatusGHPRHContext.getContext()).thenReturn(PullRequestFacade.COMMIT_CONTEXT);
-    assertThat(facade.getCommitStatusForContext(pr, PullRequestFacade.COMMIT_CONTEXT).getContext()).isEqualTo(PullRequestFacade.COMMIT_CONTEXT);
+    facade.setPr(pr);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    when(restClient.get(eq("/repos/SonarSource/sonar-java/commits/abc123/status?per_page=100"), any(GitHubRestClient.ItemReader.class)))
+      .thenReturn(new CommitStatus(GHCommitState.FAILURE, "SonarQube reported 1 issue, with 1 blocker (fail)", "http://ci/42"));
+
+    facade.createPendingSonarQubeStatus("SonarQube analysis in progress");
+    facade.createOrUpdateSonarQubeStatus(GHCommitState.FAILURE, "SonarQube reported 1 issue, with 1 blocker (fail)");
+
+    verify(restClient, never()).post(anyString(), Matchers.<String>anyVararg());
+  }
+
+  @Test
+  public void testPendingStatusAfterFailedAnalysis() throws IOException {
+    PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(pr.getHead().getSha()).thenReturn("abc123");
+    facade.setPr(pr);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    when(restClient.get(eq("/repos/SonarSource/sonar-java/commits/abc123/status?per_page=100"), any(GitHubRestClient.ItemReader.class)))
+      .thenReturn(new CommitStatus(GHCommitState.ERROR, "SonarQube analysis failed: timeout", null));
+
+    facade.createPendingSonarQubeStatus("SonarQube analysis in progress");
+
+    verify(restClient).post("/repos/SonarSource/sonar-java/statuses/abc123", "state", "pending", "target_url", null,
+      "description", "SonarQube analysis in progress", "context", "sonarqube");
+  }
+
+  @Test
+  public void testSetStatusOfPreviousCommit() throws IOException {
+    PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(pr.getHead().getSha()).thenReturn("def456");
+    facade.setPr(pr);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    when(restClient.get(eq("/repos/SonarSource/sonar-java/commits/abc123/status?per_page=100"), any(GitHubRestClient.ItemReader.class)))
+      .thenReturn(new CommitStatus(GHCommitState.PENDING, "SonarQube analysis in progress", "http://ci/42"));
+
+    facade.createOrUpdateSonarQubeStatus("abc123", GHCommitState.SUCCESS, "SonarQube reported no issues");
+
+    verify(restClient).post("/repos/SonarSource/sonar-java/statuses/abc123", "state", "success", "target_url", "http://ci/42",
+      "description", "SonarQube reported no issues", "context", "sonarqube");
   }
 
   @Test
@@ -153,4 +303,266 @@ public class PullRequestFacadeTest {
     assertThat(facade.getPath(new TestInputFileBuilder("foo", "src/main/java/Foo.java")
       .setModuleBaseDir(projectBaseDir.toPath()).build())).isEqualTo("myProject/src/main/java/Foo.java");
   }
+
+  @Test
+  public void testUpdateAndDeleteExistingReviewCommentsById() throws Exception {
+    File gitBaseDir = temp.newFolder();
+    PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
+    facade.setGitBaseDir(gitBaseDir);
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
+    facade.setPr(pr);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    Map<Integer, Integer> positionByLine = new HashMap<>();
+    positionByLine.put(10, 1);
+    positionByLine.put(12, 3);
+    facade.setPatchPositionMappingByFile(Collections.singletonMap("src/Foo.java", positionByLine));
+    facade.registerExistingReviewComment(new PublishedComment(1L, "src/Foo.java", 1, PublishedComment.hash("unchanged")));
+    facade.registerExistingReviewComment(new PublishedComment(2L, "src/Foo.java", 2, PublishedComment.hash("outdated")));
+    facade.registerExistingReviewComment(new PublishedComment(3L, "src/Foo.java", 3, PublishedComment.hash("old")));
+    facade.registerExistingReviewComment(new PublishedComment(4L, "src/Foo.java", 3, PublishedComment.hash("duplicate")));
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.file()).thenReturn(new File(gitBaseDir, "src/Foo.java"));
+
+    facade.createOrUpdateReviewComment(inputFile, 10, "unchanged");
+    facade.createOrUpdateReviewComment(inputFile, 12, "new");
+    facade.deleteOutdatedComments(new WriteBudget(Integer.MAX_VALUE, Long.MAX_VALUE, System2.INSTANCE));
+
+    // the last comment registered on a location hides the previous ones
+    verify(restClient).post("/repos/SonarSource/sonar-java/pulls/comments/4", "body", "new");
+    verify(restClient).delete("/repos/SonarSource/sonar-java/pulls/comments/2");
+    verify(restClient).delete("/repos/SonarSource/sonar-java/pulls/comments/3");
+    verifyNoMoreInteractions(restClient);
+    verify(pr, never()).createReviewComment(anyString(), anyString(), anyString(), anyInt());
+  }
+
+  @Test
+  public void testCreateReviewCommentOnlyOnce() throws Exception {
+    File gitBaseDir = temp.newFolder();
+    PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
+    facade.setGitBaseDir(gitBaseDir);
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(pr.getNumber()).thenReturn(5);
+    when(pr.getHead().getSha()).thenReturn("abc123");
+    facade.setPr(pr);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    facade.setPatchPositionMappingByFile(Collections.singletonMap("src/Foo.java", Collections.singletonMap(12, 3)));
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.file()).thenReturn(new File(gitBaseDir, "src/Foo.java"));
+    PublishedComment created = new PublishedComment(7L, "src/Foo.java", 3, PublishedComment.hash("new"));
+    when(restClient.create(anyString(), any(GitHubRestClient.ItemReader.class), any(GitHubRestClient.ReplayCheck.class), Matchers.<Object>anyVararg()))
+      .thenReturn(created);
+
+    facade.createOrUpdateReviewComment(inputFile, 12, "new");
+
+    ArgumentCaptor<GitHubRestClient.ReplayCheck> replayCheck = ArgumentCaptor.forClass(GitHubRestClient.ReplayCheck.class);
+    verify(restClient).create(eq("/repos/SonarSource/sonar-java/pulls/5/comments"), any(GitHubRestClient.ItemReader.class), replayCheck.capture(),
+      eq("body"), eq("new"), eq("commit_id"), eq("abc123"), eq("path"), eq("src/Foo.java"), eq("position"), eq(3));
+
+    // A comment created by a previous attempt is found by its location and its body
+    PublishedComment otherComment = new PublishedComment(6L, "src/Foo.java", 3, PublishedComment.hash("other"));
+    when(restClient.getPage(startsWith("/repos/SonarSource/sonar-java/pulls/5/comments?per_page=100&since="), any(GitHubRestClient.ItemReader.class)))
+      .thenReturn(new GitHubRestClient.Page<>(Arrays.asList(otherComment, created), null));
+    assertThat(replayCheck.getValue().findCreated()).isSameAs(created);
+  }
+
+  @Test
+  public void testCreateReviewCommentByLine() throws Exception {
+    File gitBaseDir = temp.newFolder();
+    GitHubPluginConfiguration config = mock(GitHubPluginConfiguration.class);
+    when(config.isReviewCommentByLine()).thenReturn(true);
+    PullRequestFacade facade = new PullRequestFacade(config);
+    facade.setGitBaseDir(gitBaseDir);
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(pr.getNumber()).thenReturn(5);
+    when(pr.getHead().getSha()).thenReturn("abc123");
+    facade.setPr(pr);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    facade.setCommentableFiles(Collections.<String, CommentableFile>singletonMap("src/Foo.java", ChangedLineRanges.parse("src/Foo.java", "@@ -10,2 +10,4 @@")));
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.file()).thenReturn(new File(gitBaseDir, "src/Foo.java"));
+    when(restClient.create(anyString(), any(GitHubRestClient.ItemReader.class), any(GitHubRestClient.ReplayCheck.class), Matchers.<Object>anyVararg()))
+      .thenReturn(new PublishedComment(7L, "src/Foo.java", 12, PublishedComment.hash("new")));
+
+    assertThat(facade.hasFileLine(inputFile, 9)).isFalse();
+    assertThat(facade.hasFileLine(inputFile, 13)).isTrue();
+    facade.createOrUpdateReviewComment(inputFile, 12, "new");
+
+    verify(restClient).create(eq("/repos/SonarSource/sonar-java/pulls/5/comments"), any(GitHubRestClient.ItemReader.class), any(GitHubRestClient.ReplayCheck.class),
+      eq("body"), eq("new"), eq("commit_id"), eq("abc123"), eq("path"), eq("src/Foo.java"), eq("line"), eq(12), eq("side"), eq("RIGHT"));
+  }
+
+  @Test
+  public void testLimitDeletionOfManyOutdatedReviewComments() throws Exception {
+    PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    for (int i = 1; i <= 1000; i++) {
+      facade.registerExistingReviewComment(new PublishedComment(i, "src/Foo.java", i, PublishedComment.hash("old")));
+    }
+
+    facade.deleteOutdatedComments(new WriteBudget(10, Long.MAX_VALUE, System2.INSTANCE));
+
+    verify(restClient, times(10)).delete(anyString());
+    verifyNoMoreInteractions(restClient);
+  }
+
+  @Test
+  public void testReuseReviewCommentMovedByGitHubAfterLineShift() throws Exception {
+    File gitBaseDir = temp.newFolder();
+    PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
+    facade.setGitBaseDir(gitBaseDir);
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    facade.setPr(mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS)));
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    facade.setRestClient(restClient);
+    // 4 lines were added above line 10, which is now line 14
+    facade.setPatchPositionMappingByFile(Collections.singletonMap("src/Foo.java", Collections.singletonMap(14, 5)));
+    // GitHub lists the comment at its position in the current diff
+    facade.registerExistingReviewComment(new PublishedComment(1L, "src/Foo.java", 5, PublishedComment.hash("unchanged")));
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.file()).thenReturn(new File(gitBaseDir, "src/Foo.java"));
+
+    assertThat(facade.hasUpToDateReviewComment(inputFile, 14, "unchanged")).isTrue();
+    facade.createOrUpdateReviewComment(inputFile, 14, "unchanged");
+    facade.deleteOutdatedComments(new WriteBudget(Integer.MAX_VALUE, Long.MAX_VALUE, System2.INSTANCE));
+
+    verifyZeroInteractions(restClient);
+  }
+
+  private PullRequestFacade newFacadeWithGlobalComments(GitHubRestClient restClient, @Nullable String nextUrl) throws IOException {
+    PullRequestFacade facade = new PullRequestFacade(mock(GitHubPluginConfiguration.class));
+    GHRepository ghRepo = mock(GHRepository.class);
+    when(ghRepo.getFullName()).thenReturn("SonarSource/sonar-java");
+    facade.setGhRepo(ghRepo);
+    GHPullRequest pr = mock(GHPullRequest.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS));
+    when(pr.getNumber()).thenReturn(5);
+    facade.setPr(pr);
+    facade.setMyself("me");
+    facade.setRestClient(restClient);
+    when(restClient.getPage(eq("/repos/SonarSource/sonar-java/issues/5/comments?per_page=100"), any(GitHubRestClient.ItemReader.class))).thenAnswer(invocation -> {
+      GitHubRestClient.ItemReader<?> reader = (GitHubRestClient.ItemReader<?>) invocation.getArguments()[1];
+      List<Object> comments = new ArrayList<>();
+      for (String json : Arrays.asList("{\"id\":1,\"user\":{\"login\":\"me\",\"id\":4},\"body\":\"old\"}",
+        "{\"id\":2,\"user\":{\"login\":\"other\"},\"body\":\"markup\"}",
+        "{\"id\":3,\"user\":{\"login\":\"me\"},\"body\":\"markup\"}",
+        "{\"id\":4,\"user\":{\"login\":\"me\"},\"body\":\"markup\"}")) {
+        JsonParser parser = GitHubRestClient.JSON_FACTORY.createParser(json);
+        parser.nextToken();
+        comments.add(reader.read(parser));
+      }
+      return new GitHubRestClient.Page<>(comments, nextUrl);
+    });
+    return facade;
+  }
+
+  @Test
+  public void testKeepSameGlobalCommentAndDeleteOthers() throws Exception {
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    PullRequestFacade facade = newFacadeWithGlobalComments(restClient, null);
+
+    facade.createOrUpdateGlobalComments("markup", new WriteBudget(Integer.MAX_VALUE, Long.MAX_VALUE, System2.INSTANCE));
+
+    verify(restClient).delete("/repos/SonarSource/sonar-java/issues/comments/1");
+    verify(restClient).delete("/repos/SonarSource/sonar-java/issues/comments/4");
+    verify(restClient, never()).delete("/repos/SonarSource/sonar-java/issues/comments/2");
+    verify(restClient, never()).delete("/repos/SonarSource/sonar-java/issues/comments/3");
+    verify(restClient, never()).create(anyString(), any(GitHubRestClient.ItemReader.class), any(GitHubRestClient.ReplayCheck.class), Matchers.<Object>anyVararg());
+  }
+
+  @Test
+  public void testKeepOtherGlobalCommentsWhenGitHubIsUnhealthy() throws Exception {
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    PullRequestFacade facade = newFacadeWithGlobalComments(restClient, null);
+    CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0L, null, System::currentTimeMillis);
+    circuitBreaker.recordFailure();
+    facade.setCircuitBreaker(circuitBreaker);
+
+    facade.createOrUpdateGlobalComments("markup", new WriteBudget(Integer.MAX_VALUE, Long.MAX_VALUE, System2.INSTANCE));
+
+    verify(restClient, never()).delete(anyString());
+    verify(restClient, never()).create(anyString(), any(GitHubRestClient.ItemReader.class), any(GitHubRestClient.ReplayCheck.class), Matchers.<Object>anyVararg());
+  }
+
+  @Test
+  public void testStopCleaningGlobalCommentsAfterDeadline() throws Exception {
+    GitHubRestClient restClient = mock(GitHubRestClient.class);
+    PullRequestFacade facade = newFacadeWithGlobalComments(restClient, "http://github/next");
+    PublicationJournal journal = new PublicationJournal(temp.newFolder());
+    facade.setJournal(journal);
+
+    facade.createOrUpdateGlobalComments("markup", new WriteBudget(Integer.MAX_VALUE, 0L, System2.INSTANCE));
+    facade.writePublicationJournal();
+
+    verify(restClient, never()).delete(anyString());
+    verify(restClient, never()).getPage(eq("http://github/next"), any(GitHubRestClient.ItemReader.class));
+    // Other comments were not all listed
+    assertThat(journal.read("SonarSource/sonar-java", 5)).isNull();
+  }
+
+  @Test
+  public void testFailureToConnectIsThrownBeforeBackgroundInit() throws Exception {
+    GitHubPluginConfiguration config = mock(GitHubPluginConfiguration.class);
+    when(config.endpoint()).thenThrow(new IllegalStateException("boom"));
+    PullRequestFacade facade = new PullRequestFacade(config);
+
+    try {
+      facade.initInBackground(1, temp.newFolder(), "pending");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("boom");
+    }
+    // Nothing to wait for
+    facade.awaitInit();
+  }
+
+  @Test
+  public void testCodeScanningRequest() throws Exception {
+    File sarif = temp.newFile();
+    Files.write(sarif.toPath(), "{\"version\":\"2.1.0\"}".getBytes(StandardCharsets.UTF_8));
+
+    String request = new String(PullRequestFacade.codeScanningRequest(sarif, "abc123", "refs/pull/5/head"), StandardCharsets.UTF_8);
+
+    String prefix = "{\"commit_sha\":\"abc123\",\"ref\":\"refs/pull/5/head\",\"sarif\":\"";
+    assertThat(request).startsWith(prefix).endsWith("\"}");
+    byte[] gzipped = Base64.getDecoder().decode(request.substring(prefix.length(), request.length() - 2));
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+      byte[] buffer = new byte[1024];
+      int read;
+      while ((read = is.read(buffer)) > 0) {
+        content.write(buffer, 0, read);
+      }
+    }
+    assertThat(new String(content.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("{\"version\":\"2.1.0\"}");
+  }
+
+  @Test
+  public void testCodeScanningRequestIsBounded() throws Exception {
+    File sarif = temp.newFile();
+    Files.write(sarif.toPath(), "{\"version\":\"2.1.0\"}".getBytes(StandardCharsets.UTF_8));
+
+    try {
+      PullRequestFacade.codeScanningRequest(sarif, "abc123", "refs/pull/5/head", 16);
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Gzipped SARIF file is bigger than the 16 bytes accepted by GitHub code scanning");
+    }
+  }
 }
@@ -19,12 +19,17 @@
  */
 package org.sonar.plugins.github;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import javax.annotation.CheckForNull;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.kohsuke.github.GHCommitState;
 import org.mockito.ArgumentCaptor;
 import org.sonar.api.CoreProperties;
@@ -46,21 +51,32 @@ import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.ArgumentCaptor.forClass;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class PullRequestIssuePostJobTest {
 
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
   private PullRequestIssuePostJob pullRequestIssuePostJob;
   private PullRequestFacade pullRequestFacade;
   private PostJobContext context;
+  private MapSettings settings;
+  private System2 system2;
 
   @Before
   public void prepare() throws Exception {
     pullRequestFacade = mock(PullRequestFacade.class);
-    MapSettings settings = new MapSettings(new PropertyDefinitions(PropertyDefinition.builder(CoreProperties.SERVER_BASE_URL)
+    when(pullRequestFacade.tracer()).thenReturn(Tracer.disabled());
+    settings = new MapSettings(new PropertyDefinitions(PropertyDefinition.builder(CoreProperties.SERVER_BASE_URL)
       .name("Server base URL")
       .description("HTTP URL of this SonarQube server, such as <i>http://yourhost.yourdomain/sonar</i>. This value is used i.e. to create links in emails.")
       .category(CoreProperties.CATEGORY_GENERAL)
@@ -71,7 +87,8 @@ public class PullRequestIssuePostJobTest {
 
     settings.setProperty("sonar.host.url", "http://192.168.0.1");
     settings.setProperty(CoreProperties.SERVER_BASE_URL, "http://myserver");
-    pullRequestIssuePostJob = new PullRequestIssuePostJob(config, pullRequestFacade, new MarkDownUtils(settings));
+    system2 = mock(System2.class);
+    pullRequestIssuePostJob = new PullRequestIssuePostJob(config, pullRequestFacade, new MarkDownUtils(settings), system2);
   }
 
   private PostJobIssue newMockedIssue(String componentKey, @CheckForNull DefaultInputFile inputFile, @CheckForNull Integer line, Severity severity,
@@ -98,7 +115,7 @@ public class PullRequestIssuePostJobTest {
   public void testPullRequestAnalysisNoIssue() {
     when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList());
     pullRequestIssuePostJob.execute(context);
-    verify(pullRequestFacade).createOrUpdateGlobalComments(null);
+    verify(pullRequestFacade).createOrUpdateGlobalComments(eq((String) null), any(WriteBudget.class));
     verify(pullRequestFacade).createOrUpdateSonarQubeStatus(GHCommitState.SUCCESS, "SonarQube reported no issues");
   }
 
@@ -127,16 +144,16 @@ public class PullRequestIssuePostJobTest {
     when(pullRequestFacade.hasFileLine(inputFile1, 1)).thenReturn(true);
 
     pullRequestIssuePostJob.execute(context);
-    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("SonarQube analysis reported 5 issues"));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("SonarQube analysis reported 5 issues"), any(WriteBudget.class));
     verify(pullRequestFacade)
-      .createOrUpdateGlobalComments(contains("* ![BLOCKER][BLOCKER] 5 blocker"));
+      .createOrUpdateGlobalComments(contains("* ![BLOCKER][BLOCKER] 5 blocker"), any(WriteBudget.class));
     verify(pullRequestFacade)
       .createOrUpdateGlobalComments(
-        not(contains("1. [Project")));
+        not(contains("1. [Project")), any(WriteBudget.class));
     verify(pullRequestFacade)
       .createOrUpdateGlobalComments(
         contains(
-          "1. ![BLOCKER][BLOCKER] [Foo.php#L2](http://github/blob/abc123/src/Foo.php#L2): msg2 [![rule](https://sonarsource.github.io/sonar-github/rule.png)](http://myserver/coding_rules#rule_key=repo%3Arule)"));
+          "1. ![BLOCKER][BLOCKER] [Foo.php#L2](http://github/blob/abc123/src/Foo.php#L2): msg2 [![rule](https://sonarsource.github.io/sonar-github/rule.png)](http://myserver/coding_rules#rule_key=repo%3Arule)"), any(WriteBudget.class));
 
     verify(pullRequestFacade).createOrUpdateSonarQubeStatus(GHCommitState.ERROR, "SonarQube reported 5 issues, with 5 blocker");
   }
@@ -176,7 +193,7 @@ public class PullRequestIssuePostJobTest {
 
     pullRequestIssuePostJob.execute(context);
 
-    verify(pullRequestFacade).createOrUpdateGlobalComments(commentCaptor.capture());
+    verify(pullRequestFacade).createOrUpdateGlobalComments(commentCaptor.capture(), any(WriteBudget.class));
 
     String comment = commentCaptor.getValue();
     assertThat(comment).containsSequence("msg6", "msg7", "msg1", "msg2", "msg4", "msg3", "msg5");
@@ -230,6 +247,241 @@ public class PullRequestIssuePostJobTest {
     verify(pullRequestFacade).createOrUpdateSonarQubeStatus(GHCommitState.ERROR, "SonarQube reported 2 issues, with 1 critical and 1 blocker");
   }
 
+  @Test
+  public void testPullRequestAnalysisWithIssuesOnManyFiles() {
+    List<PostJobIssue> issues = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      DefaultInputFile inputFile = new TestInputFileBuilder("foo", "src/Foo" + i + ".php").build();
+      when(pullRequestFacade.hasFile(inputFile)).thenReturn(i % 10 != 0);
+      when(pullRequestFacade.hasFileLine(inputFile, 1)).thenReturn(true);
+      issues.add(newMockedIssue("foo:src/Foo" + i + ".php", inputFile, 1, Severity.MAJOR, true, "msg" + i));
+      issues.add(newMockedIssue("foo:src/Foo" + i + ".php", inputFile, 1, Severity.CRITICAL, true, "msg" + i));
+      issues.add(newMockedIssue("foo:src/Foo" + i + ".php", inputFile, 2, Severity.MINOR, true, "msg" + i));
+    }
+    when(context.issues()).thenReturn(issues);
+
+    pullRequestIssuePostJob.execute(context);
+
+    // 5 files out of 50 are not part of the pull request
+    verify(pullRequestFacade, times(45)).createOrUpdateReviewComment(any(InputFile.class), eq(1),
+      startsWith("![CRITICAL](https://sonarsource.github.io/sonar-github/severity-critical.png 'Severity: CRITICAL')"));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("SonarQube analysis reported 135 issues"), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("#### Top 10 extra issues"), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateSonarQubeStatus(GHCommitState.ERROR, "SonarQube reported 135 issues, with 45 critical");
+  }
+
+  @Test
+  public void testPullRequestAnalysisWithLimitedWriteOperations() {
+    settings.setProperty(GitHubPlugin.GITHUB_MAX_WRITE_OPERATIONS, "2");
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    PostJobIssue minorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 1, Severity.MINOR, true, "msg1");
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+    PostJobIssue infoIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 4, Severity.INFO, true, "msg4");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(minorIssue, blockerIssue, majorIssue, infoIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+    // Already published, doesn't need any write operation
+    when(pullRequestFacade.hasUpToDateReviewComment(eq(inputFile1), eq(4), anyString())).thenReturn(true);
+
+    pullRequestIssuePostJob.execute(context);
+
+    verify(pullRequestFacade).createOrUpdateReviewComment(eq(inputFile1), eq(2), contains("msg2"));
+    verify(pullRequestFacade).createOrUpdateReviewComment(eq(inputFile1), eq(3), contains("msg3"));
+    verify(pullRequestFacade).createOrUpdateReviewComment(eq(inputFile1), eq(4), contains("msg4"));
+    verify(pullRequestFacade, never()).createOrUpdateReviewComment(eq(inputFile1), eq(1), anyString());
+    verify(pullRequestFacade).deleteOutdatedComments(any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("1. ![MINOR][MINOR]"), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(
+      contains("Note: 1 issue could not be reported as line comments because this analysis reached its limit of 2 GitHub write operations."), any(WriteBudget.class));
+  }
+
+  @Test
+  public void testPullRequestAnalysisReachingPublicationTimeout() {
+    settings.setProperty(GitHubPlugin.GITHUB_PUBLICATION_TIMEOUT, "100");
+    // Inline writes stop 25s before the timeout
+    when(system2.now()).thenReturn(0L, 74_000L, 75_000L);
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    PostJobIssue minorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 1, Severity.MINOR, true, "msg1");
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(minorIssue, blockerIssue, majorIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+
+    pullRequestIssuePostJob.execute(context);
+
+    verify(pullRequestFacade).createOrUpdateReviewComment(eq(inputFile1), eq(2), contains("msg2"));
+    verify(pullRequestFacade, never()).createOrUpdateReviewComment(eq(inputFile1), eq(1), anyString());
+    verify(pullRequestFacade, never()).createOrUpdateReviewComment(eq(inputFile1), eq(3), anyString());
+    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("1. ![MAJOR][MAJOR]"), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(
+      contains("Note: 2 issues could not be reported as line comments because this analysis reached its publication timeout."), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateSonarQubeStatus(GHCommitState.ERROR, "SonarQube reported 3 issues, with 1 blocker");
+  }
+
+  @Test
+  public void testPullRequestAnalysisWhenGitHubIsDegraded() {
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(blockerIssue, majorIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+    when(pullRequestFacade.isGitHubDegraded()).thenReturn(true);
+
+    pullRequestIssuePostJob.execute(context);
+
+    verify(pullRequestFacade, never()).createOrUpdateReviewComment(any(InputFile.class), anyInt(), anyString());
+    verify(pullRequestFacade).createOrUpdateGlobalComments(
+      contains("Note: 2 issues could not be reported as line comments because GitHub is currently unhealthy."), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateSonarQubeStatus(GHCommitState.ERROR, "SonarQube reported 2 issues, with 1 blocker");
+  }
+
+  @Test
+  public void testPullRequestAnalysisSwitchingToSummaryOnly() {
+    settings.setProperty(GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD, "1");
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(blockerIssue, majorIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+
+    pullRequestIssuePostJob.execute(context);
+
+    verify(pullRequestFacade, never()).createOrUpdateReviewComment(any(InputFile.class), anyInt(), anyString());
+    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("msg2"), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(contains("msg3"), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateGlobalComments(
+      contains("Note: 2 issues are only reported in this comment because line comments would need 2 GitHub write operations, more than the threshold of 1."), any(WriteBudget.class));
+    verify(pullRequestFacade, never()).createOrUpdateGlobalComments(contains("lines that were not modified"), any(WriteBudget.class));
+    verify(pullRequestFacade).createOrUpdateSonarQubeStatus(GHCommitState.ERROR, "SonarQube reported 2 issues, with 1 blocker");
+  }
+
+  @Test
+  public void testPullRequestAnalysisSwitchingToSummaryOnlyLimitsDeletions() {
+    settings.setProperty(GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD, "1");
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(blockerIssue, majorIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+
+    pullRequestIssuePostJob.execute(context);
+
+    ArgumentCaptor<WriteBudget> deletions = forClass(WriteBudget.class);
+    verify(pullRequestFacade).deleteOutdatedComments(deletions.capture());
+    assertThat(deletions.getValue().limit()).isEqualTo(1);
+  }
+
+  @Test
+  public void testPullRequestAnalysisSwitchingToSummaryOnlyWhenRateLimitIsLow() {
+    settings.setProperty(GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD, "10");
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(blockerIssue, majorIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+    when(pullRequestFacade.hasUpToDateReviewComment(eq(inputFile1), eq(2), anyString())).thenReturn(true);
+    when(pullRequestFacade.rateLimitRemaining()).thenReturn(0);
+
+    pullRequestIssuePostJob.execute(context);
+
+    verify(pullRequestFacade, never()).createOrUpdateReviewComment(any(InputFile.class), anyInt(), anyString());
+    verify(pullRequestFacade).createOrUpdateGlobalComments(
+      contains("Note: 2 issues are only reported in this comment because line comments would need 1 GitHub write operations, "
+        + "more than the 0 requests left in the GitHub rate limit."), any(WriteBudget.class));
+  }
+
+  @Test
+  public void testPullRequestAnalysisBelowSummaryOnlyThreshold() {
+    settings.setProperty(GitHubPlugin.GITHUB_SUMMARY_ONLY_THRESHOLD, "1");
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(blockerIssue, majorIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+    when(pullRequestFacade.hasUpToDateReviewComment(eq(inputFile1), eq(2), anyString())).thenReturn(true);
+    when(pullRequestFacade.rateLimitRemaining()).thenReturn(100);
+
+    pullRequestIssuePostJob.execute(context);
+
+    verify(pullRequestFacade).createOrUpdateReviewComment(eq(inputFile1), eq(2), contains("msg2"));
+    verify(pullRequestFacade).createOrUpdateReviewComment(eq(inputFile1), eq(3), contains("msg3"));
+  }
+
+  @Test
+  public void testPullRequestAnalysisWritingPublicationPlan() throws Exception {
+    settings.setProperty(GitHubPlugin.GITHUB_PUBLICATION_PLAN, "true");
+    settings.setProperty(GitHubPlugin.GITHUB_REPO, "SonarSource/sonar-github");
+    File workDir = temp.newFolder();
+    when(pullRequestFacade.workDir()).thenReturn(workDir);
+    when(pullRequestFacade.headSha()).thenReturn("abc123");
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    when(pullRequestFacade.getPath(inputFile1)).thenReturn("src/Foo.php");
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue globalIssue = newMockedIssue("foo", Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(blockerIssue, globalIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+
+    pullRequestIssuePostJob.execute(context);
+
+    verify(pullRequestFacade, never()).createOrUpdateReviewComment(any(InputFile.class), anyInt(), anyString());
+    verify(pullRequestFacade, never()).deleteOutdatedComments(any(WriteBudget.class));
+    verify(pullRequestFacade, never()).createOrUpdateGlobalComments(anyString(), any(WriteBudget.class));
+    verify(pullRequestFacade, never()).writePublicationJournal();
+    verify(pullRequestFacade, never()).createOrUpdateSonarQubeStatus(any(GHCommitState.class), anyString());
+    PublicationPlan plan = PublicationPlan.read(new File(workDir, PublicationPlan.FILE_NAME));
+    assertThat(plan.headSha()).isEqualTo("abc123");
+    assertThat(plan.settings().get(GitHubPlugin.GITHUB_REPO)).isEqualTo("SonarSource/sonar-github");
+    assertThat(plan.reviewComments()).hasSize(1);
+    assertThat(plan.reviewComments().get(0).path()).isEqualTo("src/Foo.php");
+    assertThat(plan.reviewComments().get(0).line()).isEqualTo(2);
+    assertThat(plan.reviewComments().get(0).body()).contains("msg2");
+    assertThat(plan.globalComment()).contains("msg3");
+    assertThat(plan.status()).isEqualTo(GHCommitState.ERROR);
+    assertThat(plan.statusDescription()).isEqualTo("SonarQube reported 2 issues, with 1 blocker");
+  }
+
+  @Test
+  public void testPublicationPlanIsLimitedByWriteOperations() throws Exception {
+    settings.setProperty(GitHubPlugin.GITHUB_PUBLICATION_PLAN, "true");
+    settings.setProperty(GitHubPlugin.GITHUB_REPO, "SonarSource/sonar-github");
+    settings.setProperty(GitHubPlugin.GITHUB_MAX_WRITE_OPERATIONS, "1");
+    File workDir = temp.newFolder();
+    when(pullRequestFacade.workDir()).thenReturn(workDir);
+    when(pullRequestFacade.headSha()).thenReturn("abc123");
+    DefaultInputFile inputFile1 = new TestInputFileBuilder("foo", "src/Foo.php").build();
+    when(pullRequestFacade.getPath(inputFile1)).thenReturn("src/Foo.php");
+    PostJobIssue blockerIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 2, Severity.BLOCKER, true, "msg2");
+    PostJobIssue majorIssue = newMockedIssue("foo:src/Foo.php", inputFile1, 3, Severity.MAJOR, true, "msg3");
+
+    when(context.issues()).thenReturn(Arrays.<PostJobIssue>asList(majorIssue, blockerIssue));
+    when(pullRequestFacade.hasFile(inputFile1)).thenReturn(true);
+    when(pullRequestFacade.hasFileLine(eq(inputFile1), anyInt())).thenReturn(true);
+
+    pullRequestIssuePostJob.execute(context);
+
+    PublicationPlan plan = PublicationPlan.read(new File(workDir, PublicationPlan.FILE_NAME));
+    assertThat(plan.reviewComments()).hasSize(1);
+    assertThat(plan.reviewComments().get(0).line()).isEqualTo(2);
+    assertThat(plan.globalComment()).contains("msg3");
+    assertThat(plan.globalComment()).contains("limit of 1 GitHub write operations");
+  }
+
   @Test
   public void should_update_sonarqube_status_even_if_unexpected_errors_were_raised() {
     String innerMsg = "Failed to get issues";
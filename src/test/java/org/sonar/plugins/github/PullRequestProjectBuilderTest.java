@@ -37,6 +37,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.withSettings;
@@ -84,5 +85,19 @@ public class PullRequestProjectBuilderTest {
     pullRequestProjectBuilder.build(mock(ProjectBuilder.Context.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS)));
 
     verify(facade).init(eq(1), any(File.class));
+    verify(facade).createPendingSonarQubeStatus("SonarQube analysis in progress");
+  }
+
+  @Test
+  public void shouldInitInBackground() {
+    settings.setProperty(GitHubPlugin.GITHUB_PULL_REQUEST, "1");
+    settings.setProperty(GitHubPlugin.GITHUB_BACKGROUND_INIT, "true");
+    when(mode.isIssues()).thenReturn(true);
+
+    pullRequestProjectBuilder.build(mock(ProjectBuilder.Context.class, withSettings().defaultAnswer(RETURNS_DEEP_STUBS)));
+
+    verify(facade).setWorkDir(any(File.class));
+    verify(facade).initInBackground(eq(1), any(File.class), eq("SonarQube analysis in progress"));
+    verifyNoMoreInteractions(facade);
   }
 }
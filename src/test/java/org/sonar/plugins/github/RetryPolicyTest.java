@@ -0,0 +1,97 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import org.junit.Test;
+import org.sonar.plugins.github.GitHubRestClient.HttpResponseException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryPolicyTest {
+
+  private final RetryPolicy policy = new RetryPolicy(4, new Random(0), millis -> {
+  });
+
+  @Test
+  public void transient_failures() {
+    assertThat(RetryPolicy.isTransient(new HttpResponseException("", 502))).isTrue();
+    assertThat(RetryPolicy.isTransient(new HttpResponseException("", 429))).isTrue();
+    assertThat(RetryPolicy.isTransient(new HttpResponseException("", 403, 1_000L))).isTrue();
+    assertThat(RetryPolicy.isTransient(new SocketTimeoutException())).isTrue();
+    assertThat(RetryPolicy.isTransient(new ConnectException())).isTrue();
+
+    assertThat(RetryPolicy.isTransient(new HttpResponseException("", 403))).isFalse();
+    assertThat(RetryPolicy.isTransient(new HttpResponseException("", 422))).isFalse();
+    assertThat(RetryPolicy.isTransient(new FileNotFoundException())).isFalse();
+    assertThat(RetryPolicy.isTransient(new JsonParseException("", null))).isFalse();
+  }
+
+  @Test
+  public void failures_that_may_hide_a_success() {
+    assertThat(RetryPolicy.mayHaveSucceeded(new HttpResponseException("", 502))).isTrue();
+    assertThat(RetryPolicy.mayHaveSucceeded(new SocketTimeoutException())).isTrue();
+
+    assertThat(RetryPolicy.mayHaveSucceeded(new HttpResponseException("", 403, 1_000L))).isFalse();
+    assertThat(RetryPolicy.mayHaveSucceeded(new HttpResponseException("", 429))).isFalse();
+    assertThat(RetryPolicy.mayHaveSucceeded(new ConnectException())).isFalse();
+  }
+
+  @Test
+  public void exponential_backoff_with_jitter() {
+    IOException failure = new HttpResponseException("", 502);
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.delayBeforeRetry(1, failure)).isBetween(0L, 1_000L);
+      assertThat(policy.delayBeforeRetry(2, failure)).isBetween(0L, 2_000L);
+      assertThat(policy.delayBeforeRetry(3, failure)).isBetween(0L, 4_000L);
+    }
+    assertThat(policy.delayBeforeRetry(4, failure)).isEqualTo(-1L);
+  }
+
+  @Test
+  public void delay_requested_by_github() {
+    assertThat(policy.delayBeforeRetry(1, new HttpResponseException("", 403, 5_000L))).isEqualTo(5_000L);
+    // Don't wait for the reset of the primary rate limit in an hour
+    assertThat(policy.delayBeforeRetry(1, new HttpResponseException("", 403, 3_600_000L))).isEqualTo(-1L);
+  }
+
+  @Test
+  public void no_retry_of_permanent_failures() {
+    assertThat(policy.delayBeforeRetry(1, new HttpResponseException("", 422))).isEqualTo(-1L);
+    assertThat(policy.delayBeforeRetry(1, new JsonParseException(null, "Expected a JSON array"))).isEqualTo(-1L);
+  }
+
+  @Test
+  public void no_retry_after_deadline() {
+    IOException failure = new HttpResponseException("", 502);
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.delayBeforeRetry(3, failure, 100L)).isBetween(0L, 100L);
+    }
+    assertThat(policy.delayBeforeRetry(1, failure, 0L)).isEqualTo(-1L);
+    // GitHub would throttle an earlier attempt again
+    assertThat(policy.delayBeforeRetry(1, new HttpResponseException("", 403, 5_000L), 4_000L)).isEqualTo(-1L);
+    assertThat(policy.delayBeforeRetry(1, new HttpResponseException("", 403, 5_000L), 6_000L)).isEqualTo(5_000L);
+  }
+}
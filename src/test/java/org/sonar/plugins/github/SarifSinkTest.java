@@ -0,0 +1,121 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputComponent;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SarifSinkTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final PullRequestFacade facade = mock(PullRequestFacade.class);
+
+  @Test
+  public void write_issues_of_files() throws Exception {
+    File file = new File(temp.newFolder(), "work/" + SarifSink.FILE_NAME);
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.isFile()).thenReturn(true);
+    when(facade.getPath(inputFile)).thenReturn("src/Foo.java");
+    InputComponent project = mock(InputComponent.class);
+    SarifSink sink = new SarifSink(file, facade, false);
+
+    sink.process(newIssue(inputFile, 12, Severity.CRITICAL, "squid:S2", "msg1"));
+    sink.process(newIssue(project, null, Severity.MAJOR, "squid:S3", "msg2"));
+    sink.process(newIssue(inputFile, null, Severity.MINOR, "squid:S1", "msg3"));
+    sink.finish();
+
+    assertThat(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)).isEqualTo("{"
+      + "\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\",\"version\":\"2.1.0\",\"runs\":[{\"results\":["
+      + "{\"ruleId\":\"squid:S2\",\"level\":\"error\",\"message\":{\"text\":\"msg1\"},"
+      + "\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":\"src/Foo.java\"},\"region\":{\"startLine\":12}}}]},"
+      + "{\"ruleId\":\"squid:S1\",\"level\":\"note\",\"message\":{\"text\":\"msg3\"},"
+      + "\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":\"src/Foo.java\"}}}]}],"
+      + "\"tool\":{\"driver\":{\"name\":\"SonarQube\",\"informationUri\":\"https://www.sonarqube.org/\","
+      + "\"rules\":[{\"id\":\"squid:S1\"},{\"id\":\"squid:S2\"}]}}}]}");
+    verify(facade, never()).uploadCodeScanningAnalysis(file);
+  }
+
+  @Test
+  public void upload_to_code_scanning() throws Exception {
+    File file = temp.newFile();
+    SarifSink sink = new SarifSink(file, facade, true);
+
+    sink.finish();
+
+    verify(facade).uploadCodeScanningAnalysis(file);
+  }
+
+  @Test
+  public void delete_partial_file_when_aborted() throws Exception {
+    File file = new File(temp.newFolder(), SarifSink.FILE_NAME);
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.isFile()).thenReturn(true);
+    when(facade.getPath(inputFile)).thenThrow(new IllegalStateException("boom"));
+    SarifSink sink = new SarifSink(file, facade, true);
+    try {
+      sink.process(newIssue(inputFile, 12, Severity.CRITICAL, "squid:S2", "msg1"));
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("boom");
+    }
+
+    sink.abort();
+
+    assertThat(file).doesNotExist();
+    verify(facade, never()).uploadCodeScanningAnalysis(file);
+  }
+
+  @Test
+  public void level_of_severities() {
+    assertThat(SarifSink.level(Severity.BLOCKER)).isEqualTo("error");
+    assertThat(SarifSink.level(Severity.CRITICAL)).isEqualTo("error");
+    assertThat(SarifSink.level(Severity.MAJOR)).isEqualTo("warning");
+    assertThat(SarifSink.level(Severity.MINOR)).isEqualTo("note");
+    assertThat(SarifSink.level(Severity.INFO)).isEqualTo("note");
+  }
+
+  private static PostJobIssue newIssue(InputComponent inputComponent, Integer line, Severity severity, String ruleKey, String message) {
+    PostJobIssue issue = mock(PostJobIssue.class);
+    when(issue.inputComponent()).thenReturn(inputComponent);
+    when(issue.line()).thenReturn(line);
+    when(issue.severity()).thenReturn(severity);
+    when(issue.ruleKey()).thenReturn(RuleKey.parse(ruleKey));
+    when(issue.message()).thenReturn(message);
+    return issue;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SharedRateLimiterTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final AtomicLong now = new AtomicLong(1_000_000L);
+  private final List<Long> sleeps = new ArrayList<>();
+  private Path stateFile;
+
+  @Before
+  public void prepare() throws IOException {
+    stateFile = SharedRateLimiter.stateFile(temp.newFolder().toPath().resolve("rate-limit"), "https://api.github.com", "token");
+  }
+
+  private SharedRateLimiter newLimiter(int permitsPerMinute) {
+    return new SharedRateLimiter(permitsPerMinute, stateFile, now::get, millis -> {
+      sleeps.add(millis);
+      now.addAndGet(millis);
+    });
+  }
+
+  @Test
+  public void wait_for_permits_after_burst() throws IOException {
+    SharedRateLimiter limiter = newLimiter(6);
+    for (int i = 0; i < 6; i++) {
+      limiter.acquire();
+    }
+    assertThat(sleeps).isEmpty();
+
+    limiter.acquire();
+    assertThat(sleeps).containsExactly(10_000L);
+  }
+
+  @Test
+  public void do_not_wait_after_deadline() throws IOException {
+    SharedRateLimiter limiter = newLimiter(6);
+    for (int i = 0; i < 6; i++) {
+      limiter.acquire();
+    }
+
+    limiter.acquire(now.get() + 4_000L);
+    assertThat(sleeps).containsExactly(4_000L);
+    limiter.acquire(now.get());
+    assertThat(sleeps).containsExactly(4_000L);
+  }
+
+  @Test
+  public void refill_permits_over_time() throws IOException {
+    SharedRateLimiter limiter = newLimiter(6);
+    for (int i = 0; i < 6; i++) {
+      limiter.acquire();
+    }
+    now.addAndGet(60_000L);
+    for (int i = 0; i < 6; i++) {
+      limiter.acquire();
+    }
+    assertThat(sleeps).isEmpty();
+  }
+
+  @Test
+  public void share_permits_with_other_analyses() throws IOException {
+    SharedRateLimiter limiter = newLimiter(4);
+    SharedRateLimiter otherAnalysis = newLimiter(4);
+    limiter.acquire();
+    otherAnalysis.acquire();
+    limiter.acquire();
+    otherAnalysis.acquire();
+    assertThat(sleeps).isEmpty();
+
+    otherAnalysis.acquire();
+    assertThat(sleeps).containsExactly(15_000L);
+  }
+
+  @Test
+  public void separate_tokens() {
+    Path dir = stateFile.getParent();
+    assertThat(SharedRateLimiter.stateFile(dir, "https://api.github.com", "token")).isEqualTo(stateFile);
+    assertThat(SharedRateLimiter.stateFile(dir, "https://api.github.com", "other")).isNotEqualTo(stateFile);
+    assertThat(SharedRateLimiter.stateFile(dir, "https://github.example.com/api/v3", "token")).isNotEqualTo(stateFile);
+    assertThat(stateFile.getFileName().toString()).doesNotContain("token");
+  }
+
+  @Test
+  public void reset_unreadable_bucket() throws IOException {
+    Files.createDirectories(stateFile.getParent());
+    Files.write(stateFile, new byte[] {1, 2, 3});
+    SharedRateLimiter limiter = newLimiter(2);
+    limiter.acquire();
+    limiter.acquire();
+    assertThat(sleeps).isEmpty();
+  }
+
+  @Test
+  public void do_nothing_when_not_limited() throws IOException {
+    SharedRateLimiter limiter = newLimiter(0);
+    for (int i = 0; i < 100; i++) {
+      limiter.acquire();
+    }
+    assertThat(sleeps).isEmpty();
+    assertThat(Files.exists(stateFile)).isFalse();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.util.List;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class TopCounterTest {
+
+  @Test
+  public void count_exactly_within_capacity() {
+    TopCounter counter = new TopCounter(3);
+    counter.add("b");
+    counter.add("a");
+    counter.add("b");
+    counter.add("c");
+    counter.add("a");
+    counter.add("b");
+
+    List<TopCounter.Entry> top = counter.top(2);
+    assertThat(top).hasSize(2);
+    assertThat(top.get(0).key()).isEqualTo("b");
+    assertThat(top.get(0).count()).isEqualTo(3);
+    assertThat(top.get(1).key()).isEqualTo("a");
+    assertThat(top.get(1).count()).isEqualTo(2);
+    assertThat(top.get(0).error()).isEqualTo(0);
+    assertThat(top.get(1).error()).isEqualTo(0);
+    assertThat(counter.top(10)).hasSize(3);
+  }
+
+  @Test
+  public void keep_most_frequent_keys_beyond_capacity() {
+    TopCounter counter = new TopCounter(2);
+    for (int i = 0; i < 100; i++) {
+      counter.add("frequent");
+      counter.add("rare" + i);
+    }
+
+    List<TopCounter.Entry> top = counter.top(1);
+    assertThat(top.get(0).key()).isEqualTo("frequent");
+    assertThat(top.get(0).count()).isEqualTo(100);
+    assertThat(top.get(0).error()).isEqualTo(0);
+    TopCounter.Entry rare = counter.top(2).get(1);
+    assertThat(rare.key()).isEqualTo("rare99");
+    assertThat(rare.count() - rare.error()).isEqualTo(1);
+  }
+
+  @Test
+  public void evict_smallest_counter() {
+    TopCounter counter = new TopCounter(2);
+    counter.add("a");
+    counter.add("a");
+    counter.add("b");
+    counter.add("c");
+    counter.add("d");
+
+    List<TopCounter.Entry> top = counter.top(2);
+    assertThat(top.get(0).key()).isEqualTo("d");
+    assertThat(top.get(0).count()).isEqualTo(3);
+    assertThat(top.get(0).error()).isEqualTo(2);
+    assertThat(top.get(1).key()).isEqualTo("a");
+    assertThat(top.get(1).count()).isEqualTo(2);
+  }
+
+  @Test
+  public void reject_empty_capacity() {
+    try {
+      new TopCounter(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("Capacity must be positive: 0");
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * SonarQube :: GitHub Plugin
+ * Copyright (C) 2015-2018 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.plugins.github;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TracerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final AtomicLong nanos = new AtomicLong(5_000_000L);
+
+  @Test
+  public void write_spans_as_trace_events() throws Exception {
+    File file = new File(temp.newFolder(), "work/trace.json");
+    Tracer tracer = new Tracer(file.toPath(), nanos::get);
+    assertThat(tracer.isEnabled()).isTrue();
+
+    nanos.addAndGet(2_000L);
+    try (Tracer.Span span = tracer.start("github", "GET /repos/foo/bar/pulls/1/files").arg("page", 2)) {
+      nanos.addAndGet(3_000L);
+      span.arg("status", 200);
+    }
+    tracer.write();
+
+    String trace = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    long tid = Thread.currentThread().getId();
+    assertThat(trace).startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+    assertThat(trace).contains("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + tid + ",\"args\":{\"name\":\""
+      + Thread.currentThread().getName() + "\"}}");
+    assertThat(trace).contains("{\"name\":\"GET /repos/foo/bar/pulls/1/files\",\"cat\":\"github\",\"ph\":\"X\",\"ts\":2,\"dur\":3,\"pid\":1,"
+      + "\"tid\":" + tid + ",\"args\":{\"page\":2,\"status\":200}}");
+  }
+
+  @Test
+  public void do_nothing_when_disabled() throws Exception {
+    Tracer tracer = Tracer.disabled();
+    assertThat(tracer.isEnabled()).isFalse();
+    try (Tracer.Span span = tracer.start("github", "GET /user")) {
+      span.arg("status", 200);
+    }
+    tracer.write();
+  }
+}